@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solacesystems.solclientj.core.SolEnum;
+
+/**
+ *
+ * SendPolicyBenchmark.java
+ *
+ * Measures what the two ways the samples treat the return code of
+ * <code>sessionHandle.send()</code> cost, by publishing a fixed number of
+ * messages as fast as possible on the loopback stand-in with a non-blocking
+ * transmit window:
+ * <ul>
+ * <li><code>lab-direct</code>, as in <code>lab/direct/TopicPublisher</code>:
+ * OK and WOULD_BLOCK both count as sent, so a message refused because the
+ * transmit window is full is silently lost</li>
+ * <li><code>src</code>, as in <code>src/.../TopicPublisher</code>: OK and
+ * IN_PROGRESS count as sent, and on WOULD_BLOCK the publisher waits for room
+ * in the window and sends the message again</li>
+ * </ul>
+ * Each run reports messages attempted, counted as sent by the policy and
+ * actually delivered, and the throughput of each. The loopback stand-in
+ * never returns IN_PROGRESS, so the policies differ only in how they treat
+ * WOULD_BLOCK.
+ *
+ * <p>
+ * The subscriber's receive queue holds every message of a run, so any loss
+ * is due to the send policy. The exit status is non-zero if the
+ * <code>src</code> policy loses a message, so the benchmark doubles as a
+ * regression check: <code>./gradlew sendPolicyBenchmark</code>.
+ */
+public class SendPolicyBenchmark {
+
+    private static final String USAGE = "Usage: SendPolicyBenchmark [messages=1000000] [payload=100] [window=1024]"
+            + " [runs=3] [out=]";
+
+    static final String[] POLICIES = { "lab-direct", "src" };
+
+    static final String[] COLUMNS = { "policy", "run", "messages", "payload", "window", "attempted", "counted_sent",
+            "would_block", "delivered", "lost", "elapsed_ms", "counted_msgs_per_s", "delivered_msgs_per_s" };
+
+    private static final String TOPIC = "tutorial/topic";
+    private static final long RETRY_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("messages", "1000000");
+        options.put("payload", "100");
+        options.put("window", "1024");
+        options.put("runs", "3");
+        options.put("out", "");
+        PerfSweep.parseOptions(args, 0, options, USAGE);
+        int messages = Integer.parseInt(options.get("messages"));
+        int payloadSize = Integer.parseInt(options.get("payload"));
+        int window = Integer.parseInt(options.get("window"));
+        int runs = Integer.parseInt(options.get("runs"));
+        File out = options.get("out").isEmpty() ? null : new File(options.get("out"));
+
+        System.out.println("SendPolicyBenchmark on loopback: " + options);
+        boolean srcLost = false;
+        // Alternate the policies so that warm-up does not favour either one
+        for (int run = 1; run <= runs; run++) {
+            for (String policy : POLICIES) {
+                String[] row = run(policy, run, messages, payloadSize, window);
+                print(row);
+                if (out != null) {
+                    PerfSweep.append(out, COLUMNS, row);
+                }
+                if ("src".equals(policy) && Long.parseLong(row[9]) != 0) {
+                    srcLost = true;
+                }
+            }
+        }
+        if (srcLost) {
+            System.out.println(" FAILED: the src send policy lost messages");
+            System.exit(-1);
+        }
+    }
+
+    static String[] run(String policy, int run, int messages, int payloadSize, int window)
+            throws InterruptedException {
+        boolean retryWouldBlock = "src".equals(policy);
+        final AtomicLong delivered = new AtomicLong();
+        LoopbackRouter router = new LoopbackRouter();
+        PerfSession subscriber = router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+                delivered.incrementAndGet();
+            }
+        }, Math.max(LoopbackRouter.DEFAULT_QUEUE_CAPACITY, messages), true);
+        subscriber.subscribe(TOPIC);
+        PerfSession publisher = router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+            }
+        }, window, false);
+
+        ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("send-policy-benchmark",
+                Math.max(1, payloadSize));
+        long attempted = 0;
+        long countedSent = 0;
+        long wouldBlock = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            payload.clear();
+            int rc = publisher.send(TOPIC, payload);
+            attempted++;
+            while (rc == SolEnum.ReturnCode.WOULD_BLOCK) {
+                wouldBlock++;
+                if (!retryWouldBlock) {
+                    break;
+                }
+                // Stands in for waiting on the CAN_SEND session event
+                LockSupport.parkNanos(RETRY_PARK_NANOS);
+                rc = publisher.send(TOPIC, payload);
+                attempted++;
+            }
+            if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS
+                    || (!retryWouldBlock && rc == SolEnum.ReturnCode.WOULD_BLOCK)) {
+                countedSent++;
+            }
+        }
+        long sendNanos = System.nanoTime() - start;
+
+        // Wait for everything accepted by the window to be delivered
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long accepted = ((LoopbackSession) publisher).getSent();
+        while (delivered.get() + router.getDiscarded() < accepted && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        publisher.close();
+        subscriber.close();
+
+        return new String[] { policy, String.valueOf(run), String.valueOf(messages), String.valueOf(payloadSize),
+                String.valueOf(window), String.valueOf(attempted), String.valueOf(countedSent),
+                String.valueOf(wouldBlock), String.valueOf(delivered.get()),
+                String.valueOf(countedSent - delivered.get()), String.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsed)),
+                String.format(Locale.ROOT, "%.0f", countedSent * 1e9 / sendNanos),
+                String.format(Locale.ROOT, "%.0f", delivered.get() * 1e9 / elapsed) };
+    }
+
+    private static void print(String[] row) {
+        StringBuilder line = new StringBuilder(" ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            line.append(COLUMNS[i]).append('=').append(row[i]).append(' ');
+        }
+        System.out.println(line.toString().trim());
+    }
+}
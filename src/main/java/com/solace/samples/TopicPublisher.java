@@ -20,7 +20,11 @@ package com.solace.samples;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import com.solace.samples.features.GracefulShutdown;
+import com.solace.samples.features.NativeMemoryBudget;
 import com.solacesystems.solclientj.core.SolEnum;
 import com.solacesystems.solclientj.core.Solclient;
 import com.solacesystems.solclientj.core.SolclientException;
@@ -43,14 +47,14 @@ public class TopicPublisher {
      */
     public static void main(String[] args) throws SolclientException {
         // Check command line arguments
-        if (args.length != 3) {
-            System.out.println("Usage: TopicPublisher <host:port> <client-username@message-vpn> <client-password>");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: TopicPublisher <host:port> <client-username@message-vpn> <client-password> [message-count]");
             System.out.println();
             System.exit(-1);
         }
         String[] userSplit = args[1].split("@");
         if (userSplit.length != 2) {
-            System.out.println("Usage: TopicPublisher <host:port> <client-username@message-vpn> <client-password>");
+            System.out.println("Usage: TopicPublisher <host:port> <client-username@message-vpn> <client-password> [message-count]");
             System.out.println();
             System.exit(-1);
         }
@@ -69,100 +73,128 @@ public class TopicPublisher {
         String username = userSplit[0];
         String vpnName = userSplit[1];
         String password = args[2];
+        // 1 by default, 0 publishes once a second until shutdown
+        long messageCount = args.length > 3 ? Long.parseLong(args[3]) : 1;
         System.out.println("TopicPublisher initializing...");
 
-        // Initialize the API first
-        System.out.println(" Initializing the Java RTO Messaging API...");
-        int rc = Solclient.init(new String[0]);
-        assertReturnCode("Solclient.init()", rc, SolEnum.ReturnCode.OK);
-
-        // Create the context
-        System.out.println(" Creating a context ...");
-        final ContextHandle contextHandle = Solclient.Allocator.newContextHandle();
-        rc = Solclient.createContextForHandle(contextHandle, new String[0]);
-        assertReturnCode("Solclient.createContextForHandle()", rc, SolEnum.ReturnCode.OK);
-
-        // Create the Session
-        System.out.println(" Creating a session ...");
-        // [Session] -> create the session properties
-        ArrayList<String> sessionProperties = new ArrayList<String>();
-        sessionProperties.add(SessionHandle.PROPERTIES.HOST);
-        sessionProperties.add(host);
-        sessionProperties.add(SessionHandle.PROPERTIES.USERNAME);
-        sessionProperties.add(username);
-        sessionProperties.add(SessionHandle.PROPERTIES.PASSWORD);
-        sessionProperties.add(password);
-        sessionProperties.add(SessionHandle.PROPERTIES.VPN_NAME);
-        sessionProperties.add(vpnName);
-        String[] props = new String[sessionProperties.size()];
-
-        // [Session] -> define a message callback
-        MessageCallback messageCallback = new MessageCallback() {
-            @Override
-            public void onMessage(Handle handle) {
-                // Nothing to do here for publisher.
+        // Stops publishing on Ctrl-C or SIGTERM, then drains and cleans up
+        // within 10s
+        final GracefulShutdown shutdown = new GracefulShutdown(10, TimeUnit.SECONDS).installShutdownHook();
+        try {
+            final Semaphore canSend = new Semaphore(0);
+
+            // Initialize the API first
+            System.out.println(" Initializing the Java RTO Messaging API...");
+            int rc = Solclient.init(new String[0]);
+            assertReturnCode("Solclient.init()", rc, SolEnum.ReturnCode.OK);
+
+            // Create the context
+            System.out.println(" Creating a context ...");
+            final ContextHandle contextHandle = shutdown.register(Solclient.Allocator.newContextHandle());
+            rc = Solclient.createContextForHandle(contextHandle, new String[0]);
+            assertReturnCode("Solclient.createContextForHandle()", rc, SolEnum.ReturnCode.OK);
+
+            // Create the Session
+            System.out.println(" Creating a session ...");
+            // [Session] -> create the session properties
+            ArrayList<String> sessionProperties = new ArrayList<String>();
+            sessionProperties.add(SessionHandle.PROPERTIES.HOST);
+            sessionProperties.add(host);
+            sessionProperties.add(SessionHandle.PROPERTIES.USERNAME);
+            sessionProperties.add(username);
+            sessionProperties.add(SessionHandle.PROPERTIES.PASSWORD);
+            sessionProperties.add(password);
+            sessionProperties.add(SessionHandle.PROPERTIES.VPN_NAME);
+            sessionProperties.add(vpnName);
+            String[] props = new String[sessionProperties.size()];
+
+            // [Session] -> define a message callback
+            MessageCallback messageCallback = new MessageCallback() {
+                @Override
+                public void onMessage(Handle handle) {
+                    // Nothing to do here for publisher.
+                }
+            };
+
+            // [Session] -> define a session event callback to events such as
+            // connect/disconnect events
+            SessionEventCallback sessionEventCallback = new SessionEventCallback() {
+
+                @Override
+                public void onEvent(SessionHandle sessionHandle) {
+                    System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
+                    if (sessionHandle.getSessionEvent().getSessionEventCode() == SolEnum.SessionEventCode.CAN_SEND) {
+                        canSend.release(); // transmit window has room again
+                    }
+                }
+            };
+
+            // [Session] -> create a session handle and the actual session
+            final SessionHandle sessionHandle = shutdown.register(Solclient.Allocator.newSessionHandle());
+            rc = contextHandle.createSessionForHandle(sessionHandle, sessionProperties.toArray(props), messageCallback,
+                    sessionEventCallback);
+            assertReturnCode("contextHandle.createSession()", rc, SolEnum.ReturnCode.OK);
+
+            // [Session] -> finally connect the session
+            System.out.println(" Connecting session ...");
+            rc = sessionHandle.connect();
+            assertReturnCode("sessionHandle.connect()", rc, SolEnum.ReturnCode.OK);
+
+            // Create the Message to publish
+            System.out.println(" Creating message to publish ...");
+            final MessageHandle messageHandle = shutdown
+                    .register(NativeMemoryBudget.getDefault().newMessageHandle("topic-publisher"));
+
+            // Set the destination on the message
+            Topic topic = Solclient.Allocator.newTopic("tutorial/topic");
+            messageHandle.setDestination(topic);
+
+            // Create the content to publish and attach to message
+            String contentStr = "Hello world!";
+            ByteBuffer content = NativeMemoryBudget.getDefault().allocateDirect("topic-publisher", contentStr.length());
+            content.put(contentStr.getBytes());
+            content.flip();
+            messageHandle.setBinaryAttachment(content);
+
+            // Send it, until the message count is reached or a shutdown stops
+            // intake
+            long sentCount = 0;
+            while ((messageCount == 0 || sentCount < messageCount) && !shutdown.isShutdownRequested()) {
+                System.out.println(" Sending message with content: " + contentStr);
+                rc = sessionHandle.send(messageHandle);
+
+                // The transmit window is full: the message was not taken, so wait
+                // for CAN_SEND and retry. Once a shutdown has been requested this
+                // drains the pending send, bounded by the shutdown deadline.
+                while (rc == SolEnum.ReturnCode.WOULD_BLOCK && shutdown.remainingNanos() > 0) {
+                    try {
+                        canSend.tryAcquire(Math.min(shutdown.remainingNanos(), TimeUnit.MILLISECONDS.toNanos(100)),
+                                TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        System.out.println("I was awoken while waiting to send");
+                    }
+                    rc = sessionHandle.send(messageHandle);
+                }
+                assertReturnCode("sessionHandle.send()", rc, SolEnum.ReturnCode.OK, SolEnum.ReturnCode.IN_PROGRESS);
+                sentCount++;
+
+                if (messageCount == 0 || sentCount < messageCount) {
+                    try {
+                        shutdown.awaitShutdownRequest(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        System.out.println("I was awoken while waiting");
+                    }
+                }
             }
-        };
-
-        // [Session] -> define a session event callback to events such as
-        // connect/disconnect events
-        SessionEventCallback sessionEventCallback = new SessionEventCallback() {
 
-            @Override
-            public void onEvent(SessionHandle sessionHandle) {
-                System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
-            }
-        };
-
-        // [Session] -> create a session handle and the actual session
-        final SessionHandle sessionHandle = Solclient.Allocator.newSessionHandle();
-        rc = contextHandle.createSessionForHandle(sessionHandle, sessionProperties.toArray(props), messageCallback,
-                sessionEventCallback);
-        assertReturnCode("contextHandle.createSession()", rc, SolEnum.ReturnCode.OK);
-
-        // [Session] -> finally connect the session
-        System.out.println(" Connecting session ...");
-        rc = sessionHandle.connect();
-        assertReturnCode("sessionHandle.connect()", rc, SolEnum.ReturnCode.OK);
-
-        // Create the Message to publish
-        System.out.println(" Creating message to publish ...");
-        final MessageHandle messageHandle = Solclient.Allocator.newMessageHandle();
-        rc = Solclient.createMessageForHandle(messageHandle);
-        assertReturnCode("Solclient.createMessage()", rc, SolEnum.ReturnCode.OK);
-
-        // Set the destination on the message
-        Topic topic = Solclient.Allocator.newTopic("tutorial/topic");
-        messageHandle.setDestination(topic);
-
-        // Create the content to publish and attach to message
-        String contentStr = "Hello world!";
-        ByteBuffer content = ByteBuffer.allocateDirect(contentStr.length());
-        content.put(contentStr.getBytes());
-        content.flip();
-        messageHandle.setBinaryAttachment(content);
-
-        // Send it
-        System.out.println(" Sending message with content: " + contentStr);
-        rc = sessionHandle.send(messageHandle);
-        assertReturnCode("sessionHandle.send()", rc, SolEnum.ReturnCode.OK, SolEnum.ReturnCode.IN_PROGRESS);
-
-        System.out.println(" Message Sent. Existing.");
-
-        // Cleanup!
-        // [Cleanup] -> free the allocated message
-        try {
-            messageHandle.destroy();
-        } catch (Throwable t) {
-            System.err.println("Unable to call destroy on messageCallback " + t.getCause());
+            System.out.println(" " + sentCount + " message(s) Sent. Existing.");
+        } finally {
+            // Cleanup!
+            // [Cleanup] -> free the allocated message, then disconnect and
+            // destroy the session and the context, in that order
+            shutdown.requestShutdown();
+            shutdown.close();
         }
-
-        // [Cleanup] -> disconnect session
-        sessionHandle.disconnect();
-        sessionHandle.destroy();
-
-        // [Cleanup] -> destroy the context
-        contextHandle.destroy();
     }
 
     /**
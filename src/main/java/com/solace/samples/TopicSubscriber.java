@@ -20,8 +20,12 @@ package com.solace.samples;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
+import com.solace.samples.features.GracefulShutdown;
+import com.solace.samples.features.NativeMemoryBudget;
 import com.solacesystems.solclientj.core.SolEnum;
 import com.solacesystems.solclientj.core.Solclient;
 import com.solacesystems.solclientj.core.SolclientException;
@@ -88,109 +92,147 @@ public class TopicSubscriber {
         String password = args[2];
         System.out.println("TopicSubscriber initializing...");
 
-        final CountDownLatch latch = new CountDownLatch(1); // used for
-                                                            // synchronizing b/w
-                                                            // threads
-
-        // Initialize the API first
-        System.out.println(" Initializing the Java RTO Messaging API...");
-        int rc = Solclient.init(new String[0]);
-        assertReturnCode("Solclient.init()", rc, SolEnum.ReturnCode.OK);
-
-        // Create the context
-        System.out.println(" Creating a context ...");
-        final ContextHandle contextHandle = Solclient.Allocator.newContextHandle();
-        rc = Solclient.createContextForHandle(contextHandle, new String[0]);
-        assertReturnCode("Solclient.createContextForHandle()", rc, SolEnum.ReturnCode.OK);
-
-        // Create the Session
-        System.out.println(" Creating a session ...");
-        // [Session] -> create the session properties
-        ArrayList<String> sessionProperties = new ArrayList<String>();
-        sessionProperties.add(SessionHandle.PROPERTIES.HOST);
-        sessionProperties.add(host);
-        sessionProperties.add(SessionHandle.PROPERTIES.USERNAME);
-        sessionProperties.add(username);
-        sessionProperties.add(SessionHandle.PROPERTIES.PASSWORD);
-        sessionProperties.add(password);
-        sessionProperties.add(SessionHandle.PROPERTIES.VPN_NAME);
-        sessionProperties.add(vpnName);
-        String[] props = new String[sessionProperties.size()];
-
-        // [Session] -> define a message callback to receive messages
-        MessageCallback messageCallback = new MessageCallback() {
-            @Override
-            public void onMessage(Handle handle) {
-                try {
-                    // Get the received msg from the handle
-                    MessageSupport messageSupport = (MessageSupport) handle;
-                    MessageHandle rxMessage = messageSupport.getRxMessage();
-
-                    // Get the binary attachment from the msg
-                    ByteBuffer buffer = ByteBuffer.allocateDirect(rxMessage.getBinaryAttachmentSize());
-                    rxMessage.getBinaryAttachment(buffer);
-                    buffer.flip();
-                    byte[] content = new byte[buffer.remaining()];
-                    buffer.get(content);
-
-                    System.out.println("");
-                    System.out.println(" Received a message with content: " + new String(content));
-                    System.out.println(" Complete message dump: ");
-
-                    // Display the contents of a message in human-readable form
-                    System.out.println(rxMessage.dump(SolEnum.MessageDumpMode.FULL));
-                } catch (Exception e) {
-                    e.printStackTrace();
+        // Runs until Ctrl-C or SIGTERM, then drains and cleans up within 10s
+        final GracefulShutdown shutdown = new GracefulShutdown(10, TimeUnit.SECONDS).installShutdownHook();
+        try {
+            final AtomicLong receivedCount = new AtomicLong();
+            final AtomicLong lastReceivedNanos = new AtomicLong(System.nanoTime());
+
+            // Initialize the API first
+            System.out.println(" Initializing the Java RTO Messaging API...");
+            int rc = Solclient.init(new String[0]);
+            assertReturnCode("Solclient.init()", rc, SolEnum.ReturnCode.OK);
+
+            // Create the context
+            System.out.println(" Creating a context ...");
+            final ContextHandle contextHandle = shutdown.register(Solclient.Allocator.newContextHandle());
+            rc = Solclient.createContextForHandle(contextHandle, new String[0]);
+            assertReturnCode("Solclient.createContextForHandle()", rc, SolEnum.ReturnCode.OK);
+
+            // Create the Session
+            System.out.println(" Creating a session ...");
+            // [Session] -> create the session properties
+            ArrayList<String> sessionProperties = new ArrayList<String>();
+            sessionProperties.add(SessionHandle.PROPERTIES.HOST);
+            sessionProperties.add(host);
+            sessionProperties.add(SessionHandle.PROPERTIES.USERNAME);
+            sessionProperties.add(username);
+            sessionProperties.add(SessionHandle.PROPERTIES.PASSWORD);
+            sessionProperties.add(password);
+            sessionProperties.add(SessionHandle.PROPERTIES.VPN_NAME);
+            sessionProperties.add(vpnName);
+            String[] props = new String[sessionProperties.size()];
+
+            // [Session] -> define a message callback to receive messages
+            MessageCallback messageCallback = new MessageCallback() {
+                // Reused for every message, grown when a larger one arrives
+                private ByteBuffer rxBuffer;
+
+                @Override
+                public void onMessage(Handle handle) {
+                    try {
+                        // Get the received msg from the handle
+                        MessageSupport messageSupport = (MessageSupport) handle;
+                        MessageHandle rxMessage = messageSupport.getRxMessage();
+
+                        // Get the binary attachment from the msg
+                        ByteBuffer buffer = NativeMemoryBudget.getDefault().tryEnsureCapacity("topic-subscriber",
+                                rxBuffer, rxMessage.getBinaryAttachmentSize());
+                        if (buffer == null) {
+                            // Never wait for native memory on the context thread
+                            System.out.println(" Dropped a message, native memory budget used up");
+                            return;
+                        }
+                        rxBuffer = buffer;
+                        buffer.clear();
+                        rxMessage.getBinaryAttachment(buffer);
+                        buffer.flip();
+                        byte[] content = new byte[buffer.remaining()];
+                        buffer.get(content);
+
+                        System.out.println("");
+                        System.out.println(" Received a message with content: " + new String(content));
+                        System.out.println(" Complete message dump: ");
+
+                        // Display the contents of a message in human-readable form
+                        System.out.println(rxMessage.dump(SolEnum.MessageDumpMode.FULL));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    receivedCount.incrementAndGet();
+                    lastReceivedNanos.set(System.nanoTime());
                 }
-                latch.countDown(); // unblock main thread
-            }
 
-        };
+            };
 
-        // [Session] -> define a session event callback to events such as
-        // connect/disconnect events
-        SessionEventCallback sessionEventCallback = new SessionEventCallback() {
+            // [Session] -> define a session event callback to events such as
+            // connect/disconnect events
+            SessionEventCallback sessionEventCallback = new SessionEventCallback() {
 
-            @Override
-            public void onEvent(SessionHandle sessionHandle) {
-                System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
+                @Override
+                public void onEvent(SessionHandle sessionHandle) {
+                    System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
+                }
+            };
+
+            // [Session] -> create a session handle and the actual session
+            final SessionHandle sessionHandle = shutdown.register(Solclient.Allocator.newSessionHandle());
+            rc = contextHandle.createSessionForHandle(sessionHandle, sessionProperties.toArray(props), messageCallback,
+                    sessionEventCallback);
+            assertReturnCode("contextHandle.createSession()", rc, SolEnum.ReturnCode.OK);
+
+            // [Session] -> finally connect the session
+            System.out.println(" Connecting session ...");
+            rc = sessionHandle.connect();
+            assertReturnCode("sessionHandle.connect()", rc, SolEnum.ReturnCode.OK);
+
+            // Subscribe to the destination to receive messages
+            Topic topic = Solclient.Allocator.newTopic("tutorial/topic");
+            System.out.println(" Subscribing to topic: " + topic.getName());
+            rc = sessionHandle.subscribe(topic, SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+            assertReturnCode("sessionHandle.subscribe()", rc, SolEnum.ReturnCode.OK);
+
+            System.out.println(" Subscribed. Awaiting messages, press Ctrl-C to exit...");
+            shutdown.addFlushTask(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.println(" Received " + receivedCount.get() + " messages.");
+                    System.out.flush();
+                }
+            });
+            try {
+                shutdown.awaitShutdownRequest(); // block here until shutdown
+            } catch (InterruptedException e) {
+                System.out.println("I was awoken while waiting");
             }
-        };
-
-        // [Session] -> create a session handle and the actual session
-        final SessionHandle sessionHandle = Solclient.Allocator.newSessionHandle();
-        rc = contextHandle.createSessionForHandle(sessionHandle, sessionProperties.toArray(props), messageCallback,
-                sessionEventCallback);
-        assertReturnCode("contextHandle.createSession()", rc, SolEnum.ReturnCode.OK);
-
-        // [Session] -> finally connect the session
-        System.out.println(" Connecting session ...");
-        rc = sessionHandle.connect();
-        assertReturnCode("sessionHandle.connect()", rc, SolEnum.ReturnCode.OK);
-
-        // Subscribe to the destination to receive messages
-        Topic topic = Solclient.Allocator.newTopic("tutorial/topic");
-        System.out.println(" Subscribing to topic: " + topic.getName());
-        rc = sessionHandle.subscribe(topic, SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
-        assertReturnCode("sessionHandle.subscribe()", rc, SolEnum.ReturnCode.OK);
-
-        System.out.println(" Subscribed. Awaiting message...");
-        try {
-            latch.await(); // block here until message received, and latch will
-                           // flip
-        } catch (InterruptedException e) {
-            System.out.println("I was awoken while waiting");
-        }
 
-        System.out.println(" Existing.");
+            // [Shutdown] -> stop intake, so no new messages are sent our way
+            System.out.println(" Shutting down, unsubscribing from topic: " + topic.getName());
+            rc = sessionHandle.unsubscribe(topic, SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+            if (rc != SolEnum.ReturnCode.OK) {
+                System.err.println(" sessionHandle.unsubscribe() returned " + SolEnum.ReturnCode.toString(rc));
+            }
 
-        // Cleanup!
-        // [Cleanup] -> disconnect session
-        sessionHandle.disconnect();
-        sessionHandle.destroy();
+            // [Shutdown] -> drain messages already on their way, until the
+            // session has been quiet for a moment or the deadline expires
+            try {
+                shutdown.drain(new BooleanSupplier() {
+                    @Override
+                    public boolean getAsBoolean() {
+                        return System.nanoTime() - lastReceivedNanos.get() > TimeUnit.MILLISECONDS.toNanos(100);
+                    }
+                });
+            } catch (InterruptedException e) {
+                System.out.println("I was awoken while draining");
+            }
 
-        // [Cleanup] -> destroy the context
-        contextHandle.destroy();
+            System.out.println(" Existing.");
+        } finally {
+            // Cleanup!
+            // [Cleanup] -> flush, then disconnect and destroy the session and
+            // the context, in that order
+            shutdown.close();
+        }
     }
 
     /**
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.event.SessionEventCallback;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+
+/**
+ *
+ * BulkSubscribe.java
+ *
+ * Adds and then removes a large number of topic subscriptions and reports
+ * subscriptions per second. With a window of 0 each subscription waits for
+ * its confirm, as <code>TopicSubscriber</code> does; otherwise the
+ * {@link SubscriptionManager} pipelines up to <code>window</code> requests.
+ */
+public class BulkSubscribe {
+
+    private static final String USAGE = "Usage: BulkSubscribe <host:port> <client-username@message-vpn>"
+            + " <client-password> [count=10000] [window=1024] [topic-prefix=bulk]";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println(USAGE);
+            System.out.println();
+            System.exit(-1);
+        }
+        String[] userSplit = args[1].split("@");
+        if (userSplit.length != 2 || userSplit[0].isEmpty() || userSplit[1].isEmpty()) {
+            System.out.println(USAGE);
+            System.out.println();
+            System.exit(-1);
+        }
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("count", "10000");
+        options.put("window", "1024");
+        options.put("topic-prefix", "bulk");
+        PerfSweep.parseOptions(args, 3, options, USAGE);
+        int count = Integer.parseInt(options.get("count"));
+        int window = Integer.parseInt(options.get("window"));
+        String prefix = options.get("topic-prefix");
+
+        List<String> topics = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            topics.add(prefix + "/" + (i % 100) + "/" + i);
+        }
+
+        SubscriptionManager manager = new SubscriptionManager(Math.max(1, window), new SessionEventCallback() {
+            @Override
+            public void onEvent(SessionHandle sessionHandle) {
+                System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
+            }
+        });
+        RouterSession session = new RouterSession(args[0], userSplit[0], userSplit[1], args[2],
+                new PerfSession.Listener() {
+                    @Override
+                    public void onMessage(String topic, ByteBuffer payload) {
+                    }
+                }, manager);
+        SessionHandle sessionHandle = session.getSessionHandle();
+        manager.attach(sessionHandle);
+
+        System.out.println("BulkSubscribe: " + count + " subscriptions, "
+                + (window == 0 ? "waiting for each confirm" : "window of " + window));
+
+        long start = System.nanoTime();
+        int sent = count;
+        if (window == 0) {
+            for (String topic : topics) {
+                int rc = sessionHandle.subscribe(Solclient.Allocator.newTopic(topic),
+                        SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+                RouterSession.assertReturnCode("sessionHandle.subscribe()", rc, SolEnum.ReturnCode.OK);
+            }
+        } else {
+            sent = manager.subscribeAll(topics);
+            if (!manager.awaitConfirms(5, TimeUnit.MINUTES)) {
+                System.out.println(" Timed out with " + manager.getPendingCount() + " subscriptions unconfirmed");
+            }
+        }
+        report("subscribe", count, sent, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        sent = count;
+        if (window == 0) {
+            for (String topic : topics) {
+                int rc = sessionHandle.unsubscribe(Solclient.Allocator.newTopic(topic),
+                        SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+                RouterSession.assertReturnCode("sessionHandle.unsubscribe()", rc, SolEnum.ReturnCode.OK);
+            }
+        } else {
+            sent = manager.unsubscribeAll(topics);
+            if (!manager.awaitConfirms(5, TimeUnit.MINUTES)) {
+                System.out.println(" Timed out with " + manager.getPendingCount() + " unsubscribes unconfirmed");
+            }
+        }
+        report("unsubscribe", count, sent, System.nanoTime() - start);
+
+        if (window != 0) {
+            System.out.println(" confirmed=" + manager.getConfirmed() + " failed=" + manager.getFailed()
+                    + " deduplicated=" + manager.getDeduplicated());
+            for (Map.Entry<String, String> error : manager.getErrors().entrySet()) {
+                System.out.println("  " + error.getKey() + ": " + error.getValue());
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * @param sent
+     *            requests actually sent to the router, after deduplication
+     */
+    private static void report(String operation, int count, int sent, long elapsedNanos) {
+        System.out.println(String.format(" %s: %d topics, %d requests sent in %dms, %.0f subscriptions/s", operation,
+                count, sent, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), count * 1e9 / elapsedNanos));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.solacesystems.solclientj.core.SolEnum;
+
+/**
+ *
+ * ChunkingBenchmark.java
+ *
+ * Sends a steady stream of small messages with a large message every so
+ * often on the same session, first with large messages sent whole and then
+ * through a {@link ChunkingSession} and {@link MessageReassembler}, and
+ * reports the latency of small and large messages in each mode. Sent whole,
+ * each large message delays the small messages queued behind it.
+ */
+public class ChunkingBenchmark {
+
+    private static final String USAGE = "Usage: ChunkingBenchmark <loopback | host:port> [client-username@message-vpn client-password]"
+            + " [rate=20000] [small=100] [large=4194304] [large-interval-ms=100] [chunk=65536] [duration=10]";
+
+    private static final String TOPIC = "chunking/bench";
+
+    public static void main(String[] args) throws Exception {
+        PerfSweep.Target target = PerfSweep.Target.parse(args, USAGE);
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("rate", "20000");
+        options.put("small", "100");
+        options.put("large", "4194304");
+        options.put("large-interval-ms", "100");
+        options.put("chunk", "65536");
+        options.put("duration", "10");
+        PerfSweep.parseOptions(args, target.optionsStart, options, USAGE);
+        int smallSize = Math.max(8, Integer.parseInt(options.get("small")));
+        int largeSize = Math.max(smallSize + 1, Integer.parseInt(options.get("large")));
+        int chunkSize = Integer.parseInt(options.get("chunk"));
+
+        System.out.println("ChunkingBenchmark against " + target.getName() + ": " + options);
+        run(target, "whole", 0, options, smallSize, largeSize);
+        run(target, "chunked", chunkSize, options, smallSize, largeSize);
+    }
+
+    private static void run(PerfSweep.Target target, String name, int chunkSize, Map<String, String> options,
+            final int smallSize, int largeSize) throws InterruptedException {
+        int rate = Integer.parseInt(options.get("rate"));
+        long largeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.get("large-interval-ms")));
+        int duration = Integer.parseInt(options.get("duration"));
+
+        final LatencyHistogram smallLatency = new LatencyHistogram();
+        final LatencyHistogram largeLatency = new LatencyHistogram();
+        PerfSession.Listener recorder = new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+                long latency = System.nanoTime() - payload.getLong(payload.position());
+                if (payload.remaining() > smallSize) {
+                    largeLatency.record(latency);
+                } else {
+                    smallLatency.record(latency);
+                }
+            }
+        };
+        MessageReassembler reassembler = chunkSize > 0
+                ? new MessageReassembler(recorder, 5, TimeUnit.SECONDS, 8L * largeSize)
+                : null;
+        PerfSession.Listener listener = reassembler != null ? reassembler : recorder;
+
+        LoopbackRouter router = target.loopback ? new LoopbackRouter() : null;
+        PerfSession subscriber = target.open(router, listener);
+        subscriber.subscribe(TOPIC);
+        PerfSession session = target.loopback ? router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+            }
+        }) : subscriber;
+        ChunkingSession chunking = chunkSize > 0 ? new ChunkingSession(session, chunkSize, 4L * largeSize) : null;
+        PerfSession publisher = chunking != null ? chunking : session;
+
+        ByteBuffer small = NativeMemoryBudget.getDefault().allocateDirect("chunking-benchmark", smallSize);
+        ByteBuffer large = NativeMemoryBudget.getDefault().allocateDirect("chunking-benchmark", largeSize);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long next = start;
+        long nextLarge = start;
+        long failed = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            if (now >= nextLarge) {
+                large.clear();
+                large.putLong(0, System.nanoTime());
+                failed += sent(publisher.send(TOPIC, large)) ? 0 : 1;
+                nextLarge += largeIntervalNanos;
+            }
+            small.clear();
+            small.putLong(0, System.nanoTime());
+            failed += sent(publisher.send(TOPIC, small)) ? 0 : 1;
+            next += intervalNanos;
+            while (System.nanoTime() < next) {
+                if (chunking == null || chunking.getPendingMessages() == 0) {
+                    PerfSweep.pace(next);
+                    break;
+                }
+                chunking.poll();
+            }
+        }
+        if (chunking != null) {
+            chunking.flush();
+        }
+        TimeUnit.SECONDS.sleep(1);
+
+        System.out.println(String.format(" %-8s small: count=%d p50=%.1fus p99=%.1fus max=%.1fus"
+                + "  large: count=%d p50=%.1fms max=%.1fms  failed=%d", name, smallLatency.getCount(),
+                smallLatency.getValueAtPercentile(50) / 1e3, smallLatency.getValueAtPercentile(99) / 1e3,
+                smallLatency.getMax() / 1e3, largeLatency.getCount(), largeLatency.getValueAtPercentile(50) / 1e6,
+                largeLatency.getMax() / 1e6, failed));
+        if (chunking != null) {
+            System.out.println(String.format("          fragments sent=%d received=%d reassembled=%d incomplete=%d"
+                    + " expired=%d refused=%d", chunking.getFragments(), reassembler.getFragments(),
+                    reassembler.getReassembled(), reassembler.getIncompleteMessages(), reassembler.getExpired(),
+                    reassembler.getRefused()));
+        }
+
+        if (session != subscriber) {
+            session.close();
+        }
+        subscriber.close();
+    }
+
+    private static boolean sent(int rc) {
+        return rc == SolEnum.ReturnCode.OK
+                || rc == SolEnum.ReturnCode.IN_PROGRESS;
+    }
+}
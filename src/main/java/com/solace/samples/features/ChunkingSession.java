@@ -0,0 +1,249 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+
+/**
+ *
+ * ChunkingSession.java
+ *
+ * A {@link PerfSession} that splits payloads larger than the chunk size into
+ * sequenced fragments, reassembled by a {@link MessageReassembler} on the
+ * subscriber. Each message and fragment carries a {@link #HEADER_SIZE} byte
+ * header:
+ *
+ * <pre>
+ * int  magic
+ * long source id, random per session
+ * int  message id
+ * int  fragment index
+ * int  fragment count
+ * int  total length
+ * int  fragment offset
+ * </pre>
+ *
+ * <p>
+ * Small messages are sent at once. A large message is copied into a pooled
+ * direct buffer and queued, and its fragments are sent one at a time: one
+ * after every small message and the rest from {@link #poll()}. So a small
+ * message waits for at most one fragment rather than a whole large message,
+ * and it may overtake large messages sent before it. Fragments of several
+ * large messages are sent in turn.
+ *
+ * <p>
+ * Like any {@link PerfSession} it is used by one sending thread, which
+ * should call {@link #poll()} or {@link #flush()} when it has no small
+ * messages to send.
+ */
+public class ChunkingSession implements PerfSession {
+
+    public static final int MAGIC = 0x43484b31; // "CHK1"
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * A large message waiting for its fragments to be sent.
+     */
+    private static class Pending {
+        final String topic;
+        final ByteBuffer data;
+        final int messageId;
+        final int count;
+        int nextIndex;
+
+        Pending(String topic, ByteBuffer data, int messageId, int count) {
+            this.topic = topic;
+            this.data = data;
+            this.messageId = messageId;
+            this.count = count;
+        }
+    }
+
+    private final PerfSession session;
+    private final int chunkSize;
+    private final long maxPendingBytes;
+    private final DirectBufferPool pool;
+    private final long sourceId = new Random().nextLong();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+    private final ByteBuffer fragment;
+    private int nextMessageId;
+    private long pendingBytes;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong chunkedMessages = new AtomicLong();
+    private final AtomicLong fragments = new AtomicLong();
+    private final AtomicLong wouldBlock = new AtomicLong();
+
+    /**
+     * @param session
+     *            the session fragments are sent on
+     * @param chunkSize
+     *            the most payload bytes per message or fragment
+     * @param maxPendingBytes
+     *            the most bytes of large messages queued; further large
+     *            messages are refused with WOULD_BLOCK
+     */
+    public ChunkingSession(PerfSession session, int chunkSize, long maxPendingBytes) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.session = session;
+        this.chunkSize = chunkSize;
+        this.maxPendingBytes = maxPendingBytes;
+        this.pool = new DirectBufferPool("chunking-session", maxPendingBytes);
+        this.fragment = NativeMemoryBudget.getDefault().allocateDirect("chunking-session", HEADER_SIZE + chunkSize);
+    }
+
+    @Override
+    public void subscribe(String topic) {
+        session.subscribe(topic);
+    }
+
+    /**
+     * Sends a small message at once, or queues a large one to be sent in
+     * fragments.
+     *
+     * @return the return code of sending a small message; OK once a large
+     *         message is queued, or WOULD_BLOCK if too many bytes are queued
+     */
+    @Override
+    public int send(String topic, ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length <= chunkSize) {
+            int rc = sendFragment(topic, nextMessageId++, 0, 1, length, 0, payload);
+            if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+                messages.incrementAndGet();
+                poll();
+            }
+            return rc;
+        }
+        if (pendingBytes + length > maxPendingBytes && !pending.isEmpty()) {
+            wouldBlock.incrementAndGet();
+            return SolEnum.ReturnCode.WOULD_BLOCK;
+        }
+        ByteBuffer data = pool.acquire(length);
+        data.put(payload.duplicate());
+        data.flip();
+        pending.addLast(new Pending(topic, data, nextMessageId++, (length + chunkSize - 1) / chunkSize));
+        pendingBytes += length;
+        messages.incrementAndGet();
+        chunkedMessages.incrementAndGet();
+        poll();
+        return SolEnum.ReturnCode.OK;
+    }
+
+    /**
+     * Sends the next fragment of the oldest queued large message, if any.
+     *
+     * @return the return code of the send, or OK if nothing was queued
+     */
+    public int poll() {
+        Pending message = pending.pollFirst();
+        if (message == null) {
+            return SolEnum.ReturnCode.OK;
+        }
+        int offset = message.nextIndex * chunkSize;
+        ByteBuffer data = message.data.duplicate();
+        data.position(offset);
+        data.limit(Math.min(offset + chunkSize, message.data.limit()));
+        int rc = sendFragment(message.topic, message.messageId, message.nextIndex, message.count,
+                message.data.limit(), offset, data);
+        if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+            message.nextIndex++;
+        }
+        if (message.nextIndex < message.count) {
+            pending.addLast(message);
+        } else {
+            pendingBytes -= message.data.limit();
+            pool.release(message.data);
+        }
+        return rc;
+    }
+
+    /**
+     * Sends every queued fragment, retrying while the session returns
+     * WOULD_BLOCK.
+     */
+    public void flush() {
+        while (!pending.isEmpty()) {
+            int rc = poll();
+            if (rc == SolEnum.ReturnCode.WOULD_BLOCK) {
+                Thread.yield();
+            } else if (rc != SolEnum.ReturnCode.OK && rc != SolEnum.ReturnCode.IN_PROGRESS) {
+                throw new IllegalStateException("Fragment send failed with returnCode " + rc + ":"
+                        + SolEnum.ReturnCode.toString(rc));
+            }
+        }
+    }
+
+    private int sendFragment(String topic, int messageId, int index, int count, int totalLength, int offset,
+            ByteBuffer data) {
+        fragment.clear();
+        fragment.putInt(MAGIC);
+        fragment.putLong(sourceId);
+        fragment.putInt(messageId);
+        fragment.putInt(index);
+        fragment.putInt(count);
+        fragment.putInt(totalLength);
+        fragment.putInt(offset);
+        fragment.put(data.duplicate());
+        fragment.flip();
+        int rc = session.send(topic, fragment);
+        if (rc == SolEnum.ReturnCode.WOULD_BLOCK) {
+            wouldBlock.incrementAndGet();
+        } else if (count > 1 && (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS)) {
+            fragments.incrementAndGet();
+        }
+        return rc;
+    }
+
+    /**
+     * Sends the queued fragments then closes the underlying session.
+     */
+    @Override
+    public void close() {
+        flush();
+        session.close();
+    }
+
+    public int getPendingMessages() {
+        return pending.size();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getChunkedMessages() {
+        return chunkedMessages.get();
+    }
+
+    public long getFragments() {
+        return fragments.get();
+    }
+
+    public long getWouldBlock() {
+        return wouldBlock.get();
+    }
+}
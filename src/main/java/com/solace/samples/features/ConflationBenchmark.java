@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * ConflationBenchmark.java
+ *
+ * Publishes market-data style updates over a fixed set of topics through
+ * the {@link LoopbackRouter} into a {@link ConflationCache}, while a slow
+ * consumer drains the cache at a fixed interval. Reports the conflation ratio
+ * and the consumer's CPU time, which should follow the number of topics
+ * rather than the publish rate.
+ */
+public class ConflationBenchmark {
+
+    private static final String USAGE = "Usage: ConflationBenchmark [topics=1000] [duration=5] [drain-interval-ms=10]"
+            + " [work-per-update-us=5]";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("topics", "1000");
+        options.put("duration", "5");
+        options.put("drain-interval-ms", "10");
+        options.put("work-per-update-us", "5");
+        PerfSweep.parseOptions(args, 0, options, USAGE);
+        final int topics = Integer.parseInt(options.get("topics"));
+        int duration = Integer.parseInt(options.get("duration"));
+        final int drainIntervalMs = Integer.parseInt(options.get("drain-interval-ms"));
+        final long workNanos = TimeUnit.MICROSECONDS.toNanos(Integer.parseInt(options.get("work-per-update-us")));
+
+        final ConflationCache cache = new ConflationCache(topics, 64);
+        LoopbackRouter router = new LoopbackRouter();
+        PerfSession subscriber = router.newSession(cache);
+        subscriber.subscribe("md/>");
+        PerfSession publisher = router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+            }
+        });
+
+        String[] topicNames = new String[topics];
+        for (int i = 0; i < topics; i++) {
+            topicNames[i] = "md/" + i;
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final long[] consumerCpu = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                ConflationCache.Consumer work = new ConflationCache.Consumer() {
+                    @Override
+                    public void onLatest(String topic, ByteBuffer payload) {
+                        // Simulate a slow consumer, e.g. rendering the update
+                        long until = System.nanoTime() + workNanos;
+                        while (System.nanoTime() < until) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                };
+                while (running.get()) {
+                    cache.drain(work);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(drainIntervalMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                cache.drain(work);
+                consumerCpu[0] = threads.getCurrentThreadCpuTime() - cpuStart;
+            }
+        }, "conflating-consumer");
+        consumer.start();
+
+        ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("conflation-benchmark", 64);
+        long sent = 0;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        while (System.nanoTime() < end) {
+            payload.clear();
+            payload.putLong(0, sent);
+            publisher.send(topicNames[(int) (sent % topics)], payload);
+            sent++;
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        running.set(false);
+        consumer.join();
+        publisher.close();
+        subscriber.close();
+
+        System.out.println(String.format(
+                "ConflationBenchmark: topics=%d sent=%d received=%d delivered=%d conflated=%d ratio=%.1f"
+                        + " consumer-cpu=%dms (%.0f msgs/s published)",
+                cache.getTopicCount(), sent, cache.getReceived(), cache.getDelivered(), cache.getConflated(),
+                cache.getConflationRatio(), TimeUnit.NANOSECONDS.toMillis(consumerCpu[0]), sent / (double) duration));
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.solacesystems.solclientj.core.event.MessageCallback;
+import com.solacesystems.solclientj.core.handle.Handle;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.MessageSupport;
+import com.solacesystems.solclientj.core.resource.Destination;
+
+/**
+ *
+ * ConflationCache.java
+ *
+ * Keeps only the latest message per topic for consumers that cannot keep up
+ * with the message rate, such as market data displays. The message callback
+ * overwrites the topic's slot in a fixed block of off-heap memory and marks
+ * the topic dirty in a bitmap; the consumer calls {@link #drain(Consumer)} at
+ * its own pace and sees each changed topic once, with its latest value. The
+ * consumer's work then grows with the number of topics, not the message
+ * rate.
+ *
+ * <p>
+ * There is one writer, the context thread, and one reader, the consumer.
+ * Each slot is guarded by a sequence number, so the reader retries rather
+ * than see a value that is being overwritten, and neither side blocks.
+ */
+public class ConflationCache implements MessageCallback, PerfSession.Listener {
+
+    /**
+     * Receives the latest value of a changed topic. The payload buffer is
+     * only valid for the duration of the call.
+     */
+    public interface Consumer {
+        void onLatest(String topic, ByteBuffer payload);
+    }
+
+    private final int capacity;
+    private final int slotSize;
+    private final ByteBuffer slots;
+    private final ByteBuffer[] slotViews;
+    private final String[] slotTopics;
+    private final AtomicIntegerArray sequences;
+    private final AtomicLongArray dirty;
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final ByteBuffer readView;
+    private final ByteBuffer scratch;
+    private volatile int topicCount;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            maximum number of distinct topics
+     * @param maxPayloadSize
+     *            largest payload kept; larger messages are rejected
+     */
+    public ConflationCache(int capacity, int maxPayloadSize) {
+        this.capacity = capacity;
+        this.slotSize = 4 + maxPayloadSize;
+        this.slots = NativeMemoryBudget.getDefault().allocateDirect("conflation-cache", capacity * slotSize);
+        this.slotViews = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ByteBuffer view = slots.duplicate();
+            view.position(i * slotSize + 4);
+            view.limit((i + 1) * slotSize);
+            slotViews[i] = view.slice();
+        }
+        this.slotTopics = new String[capacity];
+        this.sequences = new AtomicIntegerArray(capacity);
+        this.dirty = new AtomicLongArray((capacity + 63) / 64);
+        this.readView = slots.duplicate();
+        this.scratch = NativeMemoryBudget.getDefault().allocateDirect("conflation-cache", maxPayloadSize);
+    }
+
+    @Override
+    public void onMessage(Handle handle) {
+        MessageHandle rxMessage = ((MessageSupport) handle).getRxMessage();
+        Destination destination = rxMessage.getDestination();
+        int slot = slotFor(destination != null ? destination.getName() : "");
+        int size = rxMessage.getBinaryAttachmentSize();
+        if (slot < 0 || size > slotSize - 4) {
+            rejected.incrementAndGet();
+            return;
+        }
+        // Copy straight from the API into the slot, no intermediate buffer
+        beginWrite(slot);
+        ByteBuffer view = slotViews[slot];
+        view.clear();
+        rxMessage.getBinaryAttachment(view);
+        slots.putInt(slot * slotSize, view.position());
+        endWrite(slot);
+    }
+
+    @Override
+    public void onMessage(String topic, ByteBuffer payload) {
+        int slot = slotFor(topic);
+        if (slot < 0 || payload.remaining() > slotSize - 4) {
+            rejected.incrementAndGet();
+            return;
+        }
+        beginWrite(slot);
+        ByteBuffer view = slotViews[slot];
+        view.clear();
+        view.put(payload.duplicate());
+        slots.putInt(slot * slotSize, view.position());
+        endWrite(slot);
+    }
+
+    private int slotFor(String topic) {
+        Integer slot = index.get(topic);
+        if (slot == null) {
+            if (index.size() == capacity) {
+                return -1;
+            }
+            slot = index.size();
+            slotTopics[slot] = topic;
+            index.put(topic, slot);
+            topicCount = slot + 1;
+        }
+        return slot;
+    }
+
+    private void beginWrite(int slot) {
+        sequences.incrementAndGet(slot); // odd while writing
+    }
+
+    private void endWrite(int slot) {
+        sequences.incrementAndGet(slot);
+        received.incrementAndGet();
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        long current;
+        do {
+            current = dirty.get(word);
+            if ((current & bit) != 0) {
+                // Overwritten before the consumer saw the previous value
+                conflated.incrementAndGet();
+                return;
+            }
+        } while (!dirty.compareAndSet(word, current, current | bit));
+    }
+
+    /**
+     * Delivers the latest value of every topic that changed since the last
+     * drain.
+     *
+     * @return the number of topics delivered
+     */
+    public int drain(Consumer consumer) {
+        int count = 0;
+        for (int word = 0; word < dirty.length(); word++) {
+            long bits = dirty.getAndSet(word, 0);
+            while (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                read(slot);
+                consumer.onLatest(slotTopics[slot], scratch);
+                count++;
+            }
+        }
+        delivered.addAndGet(count);
+        return count;
+    }
+
+    private void read(int slot) {
+        int before;
+        do {
+            before = sequences.get(slot);
+            while ((before & 1) != 0) {
+                Thread.onSpinWait();
+                before = sequences.get(slot);
+            }
+            int start = slot * slotSize + 4;
+            int size = Math.min(slots.getInt(start - 4), slotSize - 4);
+            readView.limit(start + size);
+            readView.position(start);
+            scratch.clear();
+            scratch.put(readView);
+            scratch.flip();
+            readView.clear();
+            // Keep the plain payload reads above from moving past the re-check
+            VarHandle.acquireFence();
+        } while (sequences.get(slot) != before);
+    }
+
+    public int getTopicCount() {
+        return topicCount;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return updates overwritten before the consumer saw them
+     */
+    public long getConflated() {
+        return conflated.get();
+    }
+
+    /**
+     * @return messages dropped because the cache was full or the payload too
+     *         large
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return messages received per update delivered, 1.0 when nothing was
+     *         conflated
+     */
+    public double getConflationRatio() {
+        long d = delivered.get();
+        return d == 0 ? 0 : (double) received.get() / d;
+    }
+}
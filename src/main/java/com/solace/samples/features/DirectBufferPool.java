@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * DirectBufferPool.java
+ *
+ * Direct buffers in power-of-two size classes, kept for reuse once released
+ * so that large messages do not allocate native memory each time. New
+ * buffers are allocated through the {@link NativeMemoryBudget}. Released
+ * buffers beyond <code>maxPooledBytes</code> are dropped and left to the
+ * garbage collector.
+ *
+ * <p>
+ * Safe for use by several threads.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_CLASS = 10;
+    private static final int MAX_CLASS = 30;
+
+    /**
+     * The largest buffer the pool hands out.
+     */
+    public static final int MAX_SIZE = 1 << MAX_CLASS;
+
+    private final String component;
+    private final long maxPooledBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param component
+     *            the {@link NativeMemoryBudget} component allocations are
+     *            counted against
+     * @param maxPooledBytes
+     *            the most bytes kept in released buffers
+     */
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(String component, long maxPooledBytes) {
+        this.component = component;
+        this.maxPooledBytes = maxPooledBytes;
+        this.free = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[MAX_CLASS + 1];
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+    }
+
+    /**
+     * Returns a cleared buffer with its limit set to <code>size</code>.
+     *
+     * @throws IllegalStateException
+     *             if the native memory budget is used up
+     */
+    public ByteBuffer acquire(int size) throws IllegalStateException {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = free[sizeClass].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.incrementAndGet();
+        } else {
+            buffer = NativeMemoryBudget.getDefault().allocateDirect(component, 1 << sizeClass);
+            misses.incrementAndGet();
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Like {@link #acquire(int)} but never waits for native memory, for use
+     * on the context thread.
+     *
+     * @return the buffer, or null if <code>size</code> is negative or over
+     *         {@link #MAX_SIZE}, or the native memory budget is used up
+     */
+    public ByteBuffer tryAcquire(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            return null;
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = free[sizeClass].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.incrementAndGet();
+        } else {
+            buffer = NativeMemoryBudget.getDefault().tryAllocateDirect(component, 1 << sizeClass);
+            if (buffer == null) {
+                return null;
+            }
+            misses.incrementAndGet();
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer from {@link #acquire(int)} or {@link #tryAcquire(int)}
+     * to the pool. The buffer must
+     * not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        free[sizeClass(capacity)].offer(buffer);
+    }
+
+    private static int sizeClass(int size) {
+        if (size > 1 << MAX_CLASS) {
+            throw new IllegalArgumentException("Buffer size over " + (1 << MAX_CLASS) + " bytes: " + size);
+        }
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+        return Math.max(MIN_CLASS, sizeClass);
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+
+/**
+ *
+ * FanOutPublisher.java
+ *
+ * Publishes over many topics with a configurable popularity skew and payload
+ * size distribution, using a {@link WorkloadGenerator}, instead of the single
+ * <code>tutorial/topic</code> of <code>TopicPublisher</code>. Prints the
+ * overall rate every second and, at the end, the throughput achieved for
+ * each popularity bucket.
+ *
+ * <p>
+ * Against the loopback stand-in a subscriber to <code>prefix/&gt;</code> is
+ * added so that messages are routed and delivered as well as sent.
+ */
+public class FanOutPublisher {
+
+    private static final String USAGE = "Usage: FanOutPublisher <loopback | host:port> [client-username@message-vpn client-password]"
+            + " [topics=1000] [distribution=zipf:1.0] [payload=fixed:100] [rate=0] [duration=10] [prefix=fanout] [seed=1]";
+
+    public static void main(String[] args) throws Exception {
+        PerfSweep.Target target = PerfSweep.Target.parse(args, USAGE);
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("topics", "1000");
+        options.put("distribution", "zipf:1.0");
+        options.put("payload", "fixed:100");
+        options.put("rate", "0");
+        options.put("duration", "10");
+        options.put("prefix", "fanout");
+        options.put("seed", "1");
+        PerfSweep.parseOptions(args, target.optionsStart, options, USAGE);
+
+        String prefix = options.get("prefix");
+        WorkloadGenerator generator = new WorkloadGenerator(prefix, Integer.parseInt(options.get("topics")),
+                options.get("distribution"), options.get("payload"), Long.parseLong(options.get("seed")));
+        int rate = Integer.parseInt(options.get("rate"));
+        int duration = Integer.parseInt(options.get("duration"));
+
+        final AtomicLong received = new AtomicLong();
+        LoopbackRouter router = target.loopback ? new LoopbackRouter() : null;
+        PerfSession subscriber = null;
+        if (target.loopback) {
+            subscriber = router.newSession(new PerfSession.Listener() {
+                @Override
+                public void onMessage(String topic, ByteBuffer payload) {
+                    received.incrementAndGet();
+                }
+            });
+            subscriber.subscribe(prefix + "/>");
+        }
+        PerfSession publisher = target.open(router, new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+            }
+        });
+
+        System.out.println("FanOutPublisher against " + target.getName() + ": " + options);
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        long next = start;
+        long sent = 0;
+        long failed = 0;
+        long sentAtLastReport = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            generator.next();
+            int rc = publisher.send(generator.getTopic(), generator.getPayload());
+            if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+                generator.recordSent();
+                sent++;
+            } else {
+                failed++;
+            }
+            if (now >= nextReport) {
+                System.out.println(" " + (sent - sentAtLastReport) + " msgs/s");
+                sentAtLastReport = sent;
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+            if (intervalNanos > 0) {
+                next += intervalNanos;
+                PerfSweep.pace(next);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        System.out.println(String.format(" sent=%d failed=%d %.0f msgs/s over %d topics", sent, failed,
+                sent * 1e9 / elapsed, generator.getTopicCount()));
+        if (target.loopback) {
+            System.out.println(" received=" + received.get() + " router-discarded=" + router.getDiscarded());
+        }
+        generator.report(elapsed);
+
+        publisher.close();
+        if (subscriber != null) {
+            subscriber.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.SolclientException;
+import com.solacesystems.solclientj.core.event.MessageCallback;
+import com.solacesystems.solclientj.core.handle.Handle;
+import com.solacesystems.solclientj.core.handle.MapContainerHandle;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.MessageSupport;
+import com.solacesystems.solclientj.core.resource.Destination;
+
+/**
+ *
+ * FilteringCallback.java
+ *
+ * A message callback that applies a {@link MessageFilter} before handing
+ * messages on. Messages that do not match are dropped on the context thread
+ * before anything is copied to the heap or handed off; the attachment is
+ * only fetched, into one reused direct buffer, when the filter looks at the
+ * payload. Matching messages can be projected to a fixed byte range of the
+ * payload, so only the part the handler needs is copied. User properties
+ * are likewise only read when the filter has a <code>prop[...]</code> clause.
+ *
+ * <p>
+ * The handler runs on the context thread; chain a
+ * {@link VirtualThreadDispatcher} to move it elsewhere:
+ *
+ * <pre>
+ * new FilteringCallback(MessageFilter.compile("topic[1] == NYSE"), 0, -1, new VirtualThreadDispatcher.Handler() {
+ *     public void onMessage(String topic, byte[] payload) {
+ *         dispatcher.dispatch(topic, payload);
+ *     }
+ * });
+ * </pre>
+ */
+public class FilteringCallback implements MessageCallback, PerfSession.Listener {
+
+    private final MessageFilter filter;
+    private final int projectionOffset;
+    private final int projectionLength;
+    private final VirtualThreadDispatcher.Handler handler;
+    private ByteBuffer attachment = NativeMemoryBudget.getDefault().allocateDirect("filtering-callback", 4096);
+    // Only used on the context thread, null if the filter has no prop clause
+    private final RxUserProperties userProperties;
+
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    /**
+     * @param projectionOffset
+     *            first payload byte handed to the handler
+     * @param projectionLength
+     *            number of payload bytes handed to the handler, -1 for the
+     *            rest of the payload
+     */
+    public FilteringCallback(MessageFilter filter, int projectionOffset, int projectionLength,
+            VirtualThreadDispatcher.Handler handler) {
+        this.filter = filter;
+        this.projectionOffset = projectionOffset;
+        this.projectionLength = projectionLength;
+        this.handler = handler;
+        this.userProperties = filter.needsUserProperties() ? new RxUserProperties() : null;
+    }
+
+    @Override
+    public void onMessage(Handle handle) {
+        MessageHandle rxMessage = ((MessageSupport) handle).getRxMessage();
+        Destination destination = rxMessage.getDestination();
+        String topic = destination != null ? destination.getName() : null;
+        int size = rxMessage.getBinaryAttachmentSize();
+        MessageFilter.UserProperties properties = userProperties != null ? userProperties.bind(rxMessage) : null;
+        try {
+            if (!filter.needsPayload() && !filter.matches(topic, properties, null, size)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            ByteBuffer buffer = NativeMemoryBudget.getDefault().tryEnsureCapacity("filtering-callback", attachment,
+                    size);
+            if (buffer == null) {
+                // Never wait for native memory on the context thread
+                dropped.incrementAndGet();
+                return;
+            }
+            attachment = buffer;
+            attachment.clear();
+            rxMessage.getBinaryAttachment(attachment);
+            attachment.flip();
+            if (filter.needsPayload() && !filter.matches(topic, properties, attachment, size)) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } finally {
+            if (userProperties != null) {
+                userProperties.unbind();
+            }
+        }
+        deliver(topic, attachment);
+    }
+
+    @Override
+    public void onMessage(String topic, ByteBuffer payload) {
+        if (!filter.matches(topic, payload, payload.remaining())) {
+            dropped.incrementAndGet();
+            return;
+        }
+        deliver(topic, payload);
+    }
+
+    private void deliver(String topic, ByteBuffer payload) {
+        matched.incrementAndGet();
+
+        int offset = Math.min(projectionOffset, payload.remaining());
+        int length = projectionLength < 0 ? payload.remaining() - offset
+                : Math.min(projectionLength, payload.remaining() - offset);
+        byte[] projected = new byte[length];
+        ByteBuffer source = payload.duplicate();
+        source.position(payload.position() + offset);
+        source.get(projected);
+        bytesCopied.addAndGet(length);
+
+        try {
+            handler.onMessage(topic, projected);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public MessageFilter getFilter() {
+        return filter;
+    }
+
+    public long getMatched() {
+        return matched.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    /**
+     * Reads the user properties of the rx message through one reused map
+     * container handle.
+     */
+    private static final class RxUserProperties implements MessageFilter.UserProperties {
+
+        private final MapContainerHandle map = Solclient.Allocator.newMapContainerHandle();
+        private boolean bound;
+
+        /**
+         * @return this, or null if the message has no user properties
+         */
+        MessageFilter.UserProperties bind(MessageHandle rxMessage) {
+            bound = rxMessage.getUserPropertyMap(map) == SolEnum.ReturnCode.OK;
+            return bound ? this : null;
+        }
+
+        void unbind() {
+            if (bound) {
+                map.destroy();
+                bound = false;
+            }
+        }
+
+        @Override
+        public String getString(String name) {
+            try {
+                return map.getString(name);
+            } catch (SolclientException e) {
+                return null; // missing or not a string
+            }
+        }
+
+        @Override
+        public Number getNumber(String name) {
+            try {
+                return map.getLong(name);
+            } catch (SolclientException e) {
+                // missing or not an integer
+            }
+            try {
+                return map.getDouble(name);
+            } catch (SolclientException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ *
+ * FlowAdapterBenchmark.java
+ *
+ * Measures the per-message cost of the {@link SessionFlowPublisher}: a
+ * producer thread stands in for the context thread and offers messages while
+ * a subscriber requests them in batches, as a reactive pipeline would. No
+ * router is needed.
+ */
+public class FlowAdapterBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 3) {
+            System.out.println("Usage: FlowAdapterBenchmark [messages] [buffer-capacity] [request-batch]");
+            System.out.println();
+            System.exit(-1);
+        }
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        final int batch = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        // Warm up, then measure
+        run(messages / 10, capacity, batch);
+        long elapsed = run(messages, capacity, batch);
+
+        System.out.println(String.format("FlowAdapterBenchmark: %d messages, capacity=%d, batch=%d: %.1f ns/msg, %.0f msgs/s",
+                messages, capacity, batch, (double) elapsed / messages, messages * 1e9 / elapsed));
+    }
+
+    private static long run(final int messages, int capacity, final int batch) throws InterruptedException {
+        final SessionFlowPublisher publisher = new SessionFlowPublisher(capacity);
+        final CountDownLatch done = new CountDownLatch(1);
+        publisher.subscribe(new Flow.Subscriber<TopicMessage>() {
+            private Flow.Subscription subscription;
+            private long count;
+            private long outstanding;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                outstanding = batch;
+                subscription.request(batch);
+            }
+
+            @Override
+            public void onNext(TopicMessage item) {
+                if (++count == messages) {
+                    done.countDown();
+                }
+                if (--outstanding <= batch / 2) {
+                    subscription.request(batch - outstanding);
+                    outstanding = batch;
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                throwable.printStackTrace();
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        // Messages are built up front so only the adapter is measured
+        TopicMessage[] pool = new TopicMessage[1024];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new TopicMessage("bench/topic", new byte[64]);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            while (publisher.getBuffered() >= capacity) {
+                Thread.yield();
+            }
+            publisher.offer(pool[i & (pool.length - 1)]);
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+}
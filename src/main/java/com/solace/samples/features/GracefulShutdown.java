@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import com.solacesystems.solclientj.core.handle.Handle;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+
+/**
+ *
+ * GracefulShutdown.java
+ *
+ * Coordinates an orderly shutdown of a long-running sample, whether it is
+ * triggered by the application finishing its work or by the JVM shutting
+ * down (Ctrl-C, SIGTERM during a deploy).
+ *
+ * <p>
+ * The main thread runs until {@link #isShutdownRequested()}, stops taking in
+ * new work, then waits for outstanding work with {@link #drain(BooleanSupplier)}
+ * and finally calls {@link #close()}. Close runs the registered flush tasks
+ * and destroys the registered handles in reverse order of registration, so
+ * registering the context, then the session, then messages destroys the
+ * messages first and the context last. Sessions are disconnected before they
+ * are destroyed.
+ *
+ * <p>
+ * Every step after the request is bounded by a single deadline. The shutdown
+ * hook waits for {@link #close()} for no longer than that deadline, so a
+ * stuck drain cannot hang a restart.
+ */
+public class GracefulShutdown {
+
+    private final long deadlineNanos;
+    private final CountDownLatch shutdownRequested = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final List<Runnable> flushTasks = new ArrayList<Runnable>();
+    private final Deque<Handle> handles = new ArrayDeque<Handle>();
+    private volatile long requestedAt;
+
+    /**
+     * @param deadline
+     *            time allowed from the shutdown request until all handles
+     *            are destroyed
+     */
+    public GracefulShutdown(long deadline, TimeUnit unit) {
+        this.deadlineNanos = unit.toNanos(deadline);
+    }
+
+    /**
+     * Requests a shutdown when the JVM begins to exit and waits, up to the
+     * deadline, for the main thread to complete it.
+     */
+    public GracefulShutdown installShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                requestShutdown();
+                try {
+                    if (!closed.await(remainingNanos() + TimeUnit.SECONDS.toNanos(1), TimeUnit.NANOSECONDS)) {
+                        System.err.println(" Shutdown deadline expired before cleanup completed");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "graceful-shutdown"));
+        return this;
+    }
+
+    public synchronized void requestShutdown() {
+        if (shutdownRequested.getCount() > 0) {
+            requestedAt = System.nanoTime();
+            shutdownRequested.countDown();
+        }
+    }
+
+    public boolean isShutdownRequested() {
+        return shutdownRequested.getCount() == 0;
+    }
+
+    /**
+     * Blocks until a shutdown is requested.
+     */
+    public void awaitShutdownRequest() throws InterruptedException {
+        shutdownRequested.await();
+    }
+
+    /**
+     * @return true if a shutdown was requested within the timeout
+     */
+    public boolean awaitShutdownRequest(long timeout, TimeUnit unit) throws InterruptedException {
+        return shutdownRequested.await(timeout, unit);
+    }
+
+    /**
+     * @return nanoseconds left until the deadline, the full deadline if no
+     *         shutdown has been requested yet
+     */
+    public long remainingNanos() {
+        if (!isShutdownRequested()) {
+            return deadlineNanos;
+        }
+        return Math.max(0, requestedAt + deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Polls until <code>drained</code> returns true or the deadline expires.
+     *
+     * @return true if drained before the deadline
+     */
+    public boolean drain(BooleanSupplier drained) throws InterruptedException {
+        while (!drained.getAsBoolean()) {
+            if (remainingNanos() == 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a task, such as flushing metrics or capture files, run on close
+     * before any handle is destroyed.
+     */
+    public synchronized void addFlushTask(Runnable task) {
+        flushTasks.add(task);
+    }
+
+    /**
+     * Registers a handle to be destroyed on close, after every handle
+     * registered later.
+     */
+    public synchronized <T extends Handle> T register(T handle) {
+        handles.push(handle);
+        return handle;
+    }
+
+    /**
+     * Runs the flush tasks then disconnects and destroys the registered
+     * handles, newest first. Safe to call more than once.
+     */
+    public synchronized void close() {
+        if (closed.getCount() == 0) {
+            return;
+        }
+        try {
+            for (Runnable task : flushTasks) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    System.err.println("Flush task failed " + t);
+                }
+            }
+            while (!handles.isEmpty()) {
+                Handle handle = handles.pop();
+                try {
+                    if (handle instanceof SessionHandle) {
+                        ((SessionHandle) handle).disconnect();
+                    }
+                    if (handle instanceof MessageHandle) {
+                        // Also releases its native memory accounting
+                        NativeMemoryBudget.getDefault().destroy((MessageHandle) handle);
+                    } else {
+                        handle.destroy();
+                    }
+                } catch (Throwable t) {
+                    System.err.println("Unable to call destroy on " + handle + " " + t.getCause());
+                }
+            }
+        } finally {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * HotPathTracer.java
+ *
+ * Sampled timestamps along the hot path, from the send call to the end of the
+ * application handler, to tell time spent in the API's send call, copying
+ * out of the message callback, waiting for a handler thread and in the
+ * handler apart.
+ *
+ * <p>
+ * Tracing is configured once per JVM with system properties:
+ * <ul>
+ * <li><code>solace.samples.trace.sample=N</code> traces one message in N,
+ * picked at random; 0, the default, turns tracing off</li>
+ * <li><code>solace.samples.trace.ring=N</code> is the number of stamps kept
+ * per stripe, the oldest are overwritten (default 65536)</li>
+ * <li><code>solace.samples.trace.file=path</code> exports the stamps as CSV
+ * when the JVM exits</li>
+ * </ul>
+ * When tracing is off {@link #ENABLED} is a constant false and the JIT removes
+ * the hooks entirely. When it is on, an unsampled message costs a
+ * thread-local random number and a sampled one a
+ * <code>System.nanoTime()</code>, an atomic increment and four array stores
+ * per stage. Stamps go into a fixed set of rings, striped by thread id, so
+ * recording takes no locks and short-lived threads such as virtual threads
+ * allocate nothing.
+ *
+ * <p>
+ * A hook samples a trace id at the start of a path and passes it along:
+ *
+ * <pre>
+ * long traceId = HotPathTracer.sample();
+ * HotPathTracer.mark(traceId, HotPathTracer.SEND_ENQUEUE);
+ * int rc = sessionHandle.send(messageHandle);
+ * HotPathTracer.mark(traceId, HotPathTracer.SEND_RETURN);
+ * </pre>
+ *
+ * The rings are read without synchronization, so export and report once
+ * traffic has stopped.
+ */
+public final class HotPathTracer {
+
+    public static final int SEND_ENQUEUE = 0;
+    public static final int SEND_RETURN = 1;
+    public static final int CALLBACK_ENTRY = 2;
+    public static final int HAND_OFF = 3;
+    public static final int HANDLER_START = 4;
+    public static final int HANDLER_END = 5;
+
+    static final String[] STAGES = { "send-enqueue", "send-return", "callback-entry", "hand-off", "handler-start",
+            "handler-end" };
+
+    /**
+     * Stage-to-stage segments reported, named after where the time goes.
+     */
+    private static final String[] SEGMENTS = { "send call", "transit", "copy-out", "queueing", "handler" };
+    private static final int[][] SEGMENT_STAGES = { { SEND_ENQUEUE, SEND_RETURN }, { SEND_RETURN, CALLBACK_ENTRY },
+            { CALLBACK_ENTRY, HAND_OFF }, { HAND_OFF, HANDLER_START }, { HANDLER_START, HANDLER_END } };
+
+    public static final int SAMPLE_EVERY = Integer.getInteger("solace.samples.trace.sample", 0);
+    public static final boolean ENABLED = SAMPLE_EVERY > 0;
+
+    private static final int RING_SIZE = Integer.highestOneBit(
+            Math.max(2, Integer.getInteger("solace.samples.trace.ring", 65536)));
+
+    private static final AtomicLong nextTraceId = new AtomicLong();
+    private static final Ring[] rings = new Ring[ENABLED
+            ? Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors())) * 2
+            : 0];
+
+    static {
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring();
+        }
+    }
+
+    static {
+        final String file = System.getProperty("solace.samples.trace.file");
+        if (ENABLED && file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread("trace-export") {
+                @Override
+                public void run() {
+                    try {
+                        export(new File(file));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    private HotPathTracer() {
+    }
+
+    /**
+     * Stamps recorded by the threads of one stripe: trace id, stage, thread
+     * and time in parallel arrays. Writers claim a slot with an atomic
+     * increment.
+     */
+    private static final class Ring {
+        final long[] traceIds = new long[RING_SIZE];
+        final long[] nanos = new long[RING_SIZE];
+        final byte[] stages = new byte[RING_SIZE];
+        final String[] threads = new String[RING_SIZE];
+        final AtomicLong written = new AtomicLong();
+
+        void write(long traceId, int stage, String thread, long now) {
+            int index = (int) written.getAndIncrement() & (RING_SIZE - 1);
+            traceIds[index] = traceId;
+            nanos[index] = now;
+            stages[index] = (byte) stage;
+            threads[index] = thread;
+        }
+    }
+
+    /**
+     * A single recorded stamp.
+     */
+    static final class Stamp {
+        final long traceId;
+        final int stage;
+        final String thread;
+        final long nanos;
+
+        Stamp(long traceId, int stage, String thread, long nanos) {
+            this.traceId = traceId;
+            this.stage = stage;
+            this.thread = thread;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Decides whether the message starting on this thread is traced.
+     *
+     * @return a trace id to pass to {@link #mark(long, int)}, or 0 if the
+     *         message is not sampled or tracing is off
+     */
+    public static long sample() {
+        if (!ENABLED) {
+            return 0;
+        }
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) != 0) {
+            return 0;
+        }
+        return nextTraceId.incrementAndGet();
+    }
+
+    /**
+     * Records that the traced message reached <code>stage</code> now. Does
+     * nothing for trace id 0.
+     */
+    public static void mark(long traceId, int stage) {
+        if (ENABLED && traceId != 0) {
+            Thread thread = Thread.currentThread();
+            String name = thread.getName();
+            // Virtual threads are unnamed by default
+            rings[(int) thread.getId() & (rings.length - 1)].write(traceId, stage,
+                    name.isEmpty() ? "virtual" : name, System.nanoTime());
+        }
+    }
+
+    /**
+     * Returns the stamps still held in every ring, oldest first per ring.
+     */
+    static List<Stamp> snapshot() {
+        List<Stamp> stamps = new ArrayList<Stamp>();
+        for (Ring r : rings) {
+            long written = r.written.get();
+            for (long position = Math.max(0, written - RING_SIZE); position < written; position++) {
+                int index = (int) position & (RING_SIZE - 1);
+                if (r.threads[index] != null) {
+                    stamps.add(new Stamp(r.traceIds[index], r.stages[index], r.threads[index], r.nanos[index]));
+                }
+            }
+        }
+        return stamps;
+    }
+
+    /**
+     * Writes the recorded stamps as CSV: trace id, stage, thread, nanoTime.
+     */
+    public static void export(File file) throws IOException {
+        List<Stamp> stamps = snapshot();
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("trace_id,stage,thread,nanos");
+            for (Stamp stamp : stamps) {
+                writer.println(stamp.traceId + "," + STAGES[stamp.stage] + "," + stamp.thread.replace(',', ' ') + ","
+                        + stamp.nanos);
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.println("Exported " + stamps.size() + " trace stamps to " + file);
+    }
+
+    /**
+     * Reads stamps exported by {@link #export(File)}.
+     */
+    static List<Stamp> read(File file) throws IOException {
+        Map<String, Integer> stageIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < STAGES.length; i++) {
+            stageIndex.put(STAGES[i], i);
+        }
+        List<Stamp> stamps = new ArrayList<Stamp>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                Integer stage = fields.length == 4 ? stageIndex.get(fields[1]) : null;
+                if (stage == null) {
+                    throw new IOException("Not a trace export line: " + line);
+                }
+                stamps.add(new Stamp(Long.parseLong(fields[0]), stage, fields[2], Long.parseLong(fields[3])));
+            }
+        } finally {
+            reader.close();
+        }
+        return stamps;
+    }
+
+    /**
+     * Prints the latency of each segment of the hot path over the recorded
+     * stamps.
+     */
+    public static void report() {
+        report(snapshot());
+    }
+
+    static void report(List<Stamp> stamps) {
+        Map<Long, long[]> traces = new HashMap<Long, long[]>();
+        for (Stamp stamp : stamps) {
+            long[] times = traces.get(stamp.traceId);
+            if (times == null) {
+                times = new long[STAGES.length];
+                traces.put(stamp.traceId, times);
+            }
+            times[stamp.stage] = stamp.nanos;
+        }
+
+        LatencyHistogram[] segments = new LatencyHistogram[SEGMENTS.length];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new LatencyHistogram();
+        }
+        for (long[] times : traces.values()) {
+            for (int i = 0; i < segments.length; i++) {
+                long from = times[SEGMENT_STAGES[i][0]];
+                long to = times[SEGMENT_STAGES[i][1]];
+                if (from != 0 && to != 0) {
+                    segments[i].record(to - from);
+                }
+            }
+        }
+
+        System.out.println(" Hot path breakdown over " + traces.size() + " traced messages (us):");
+        for (int i = 0; i < segments.length; i++) {
+            LatencyHistogram segment = segments[i];
+            if (segment.getCount() == 0) {
+                continue;
+            }
+            System.out.println(String.format("  %-10s %-32s count=%-8d mean=%8.2f p50=%8.2f p99=%8.2f max=%8.2f",
+                    SEGMENTS[i], STAGES[SEGMENT_STAGES[i][0]] + " -> " + STAGES[SEGMENT_STAGES[i][1]],
+                    segment.getCount(), segment.getMean() / 1e3, segment.getValueAtPercentile(50) / 1e3,
+                    segment.getValueAtPercentile(99) / 1e3, segment.getMax() / 1e3));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * HotPathWarmer.java
+ *
+ * Warms the send and receive path before real traffic arrives by pushing
+ * synthetic messages through the {@link LoopbackRouter} into the
+ * application's own listener, until the JIT has compiled it. There is no
+ * portable way to ask whether a given method is compiled, so warming stops
+ * once the JVM's total compilation time has stopped growing for a few
+ * consecutive batches, or at the time limit.
+ *
+ * <p>
+ * The listener sees real-looking messages on topics under
+ * {@link #WARMUP_TOPIC_PREFIX}; it must not treat them as business data.
+ */
+public class HotPathWarmer {
+
+    public static final String WARMUP_TOPIC_PREFIX = "#warmup/";
+
+    private static final int BATCH = 10000;
+    private static final int QUIET_BATCHES = 3;
+
+    private long messages;
+    private long compileMillis;
+
+    /**
+     * @return true if compilation settled before the time limit
+     */
+    public boolean warm(PerfSession.Listener listener, int payloadSize, long maxTime, TimeUnit unit)
+            throws InterruptedException {
+        final AtomicLong received = new AtomicLong();
+        final PerfSession.Listener target = listener;
+        LoopbackRouter router = new LoopbackRouter();
+        PerfSession receiver = router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+                target.onMessage(topic, payload);
+                received.incrementAndGet();
+            }
+        });
+        String topic = WARMUP_TOPIC_PREFIX + "hot-path";
+        receiver.subscribe(topic);
+        PerfSession sender = router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+            }
+        });
+
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        boolean monitored = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+        long startCompile = monitored ? compiler.getTotalCompilationTime() : 0;
+        long lastCompile = startCompile;
+        int quiet = 0;
+        long deadline = System.nanoTime() + unit.toNanos(maxTime);
+        ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("hot-path-warmer",
+                Math.max(8, payloadSize));
+        boolean settled = false;
+        try {
+            while (System.nanoTime() < deadline) {
+                for (int i = 0; i < BATCH; i++) {
+                    payload.clear();
+                    payload.putLong(0, System.nanoTime());
+                    sender.send(topic, payload);
+                    messages++;
+                }
+                // Let the receive side catch up so both paths are exercised
+                while (received.get() + router.getDiscarded() < messages - BATCH && System.nanoTime() < deadline) {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+                if (!monitored) {
+                    continue;
+                }
+                long total = compiler.getTotalCompilationTime();
+                quiet = total == lastCompile ? quiet + 1 : 0;
+                lastCompile = total;
+                if (quiet >= QUIET_BATCHES) {
+                    settled = true;
+                    break;
+                }
+            }
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+        compileMillis = lastCompile - startCompile;
+        return settled;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return JIT compilation time spent while warming
+     */
+    public long getCompileMillis() {
+        return compileMillis;
+    }
+}
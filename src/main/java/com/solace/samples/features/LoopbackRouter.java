@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * LoopbackRouter.java
+ *
+ * An in-process stand-in for a Solace message router, used to exercise and
+ * benchmark the client-side code paths without a router. Sessions created
+ * here behave like direct messaging sessions: each has a bounded transmit
+ * window and its own context thread, messages are routed to every session
+ * with a matching subscription (including <code>*</code> and
+ * <code>&gt;</code> wildcards), and messages for a subscriber that has fallen
+ * behind are discarded rather than queued without bound.
+ */
+public class LoopbackRouter {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    private final CopyOnWriteArrayList<LoopbackSession> sessions = new CopyOnWriteArrayList<LoopbackSession>();
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Creates a session whose sends block while its transmit window is full.
+     */
+    public LoopbackSession newSession(PerfSession.Listener listener) {
+        return newSession(listener, DEFAULT_QUEUE_CAPACITY, true);
+    }
+
+    /**
+     * @param queueCapacity
+     *            size of both the transmit window and the receive queue
+     * @param blockingSend
+     *            if false, sends return WOULD_BLOCK while the transmit window
+     *            is full
+     */
+    public LoopbackSession newSession(PerfSession.Listener listener, int queueCapacity, boolean blockingSend) {
+        LoopbackSession session = new LoopbackSession(this, listener, queueCapacity, blockingSend,
+                "loopback-context-" + sessions.size());
+        sessions.add(session);
+        return session;
+    }
+
+    void remove(LoopbackSession session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * Called on the sending session's context thread.
+     */
+    void route(String topic, byte[] payload) {
+        routed.incrementAndGet();
+        for (LoopbackSession session : sessions) {
+            if (session.isSubscribed(topic) && !session.deliver(topic, payload)) {
+                discarded.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Messages accepted from publishing sessions.
+     */
+    public long getRouted() {
+        return routed.get();
+    }
+
+    /**
+     * Deliveries dropped because a subscriber's receive queue was full.
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Matches a topic against a subscription using Solace wildcard rules:
+     * <code>*</code> as the last character of a level matches the rest of
+     * that level and a trailing <code>&gt;</code> level matches one or more
+     * levels.
+     */
+    public static boolean matches(String subscription, String topic) {
+        int si = 0;
+        int ti = 0;
+        int subLength = subscription.length();
+        int topicLength = topic.length();
+        while (si < subLength) {
+            char c = subscription.charAt(si);
+            boolean levelStart = si == 0 || subscription.charAt(si - 1) == '/';
+            if (c == '>' && levelStart && si == subLength - 1) {
+                return ti < topicLength;
+            }
+            if (c == '*' && (si == subLength - 1 || subscription.charAt(si + 1) == '/')) {
+                while (ti < topicLength && topic.charAt(ti) != '/') {
+                    ti++;
+                }
+                si++;
+                continue;
+            }
+            if (ti >= topicLength || topic.charAt(ti) != c) {
+                return false;
+            }
+            si++;
+            ti++;
+        }
+        return ti == topicLength;
+    }
+
+    static byte[] copy(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+}
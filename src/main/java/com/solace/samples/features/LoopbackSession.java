@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solacesystems.solclientj.core.SolEnum;
+
+/**
+ *
+ * LoopbackSession.java
+ *
+ * A session on the in-process {@link LoopbackRouter}. Sends are queued on a
+ * bounded transmit window; the session's context thread routes them to the
+ * subscribed sessions and calls the {@link PerfSession.Listener} for
+ * messages it receives, so a slow listener delays both, as it would with a
+ * real context. As on a {@link RouterSession}, the send call is a
+ * {@link HotPathTracer} hook.
+ *
+ * <p>
+ * Do not send from the listener of a blocking session: the context thread
+ * would wait on its own transmit window.
+ */
+public class LoopbackSession implements PerfSession {
+
+    private static final int DRAIN_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final LoopbackRouter router;
+    private final Listener listener;
+    private final boolean blockingSend;
+    private final ArrayBlockingQueue<TopicMessage> transmitQueue;
+    private final ArrayBlockingQueue<TopicMessage> receiveQueue;
+    private final CopyOnWriteArrayList<String> subscriptions = new CopyOnWriteArrayList<String>();
+    private final Thread contextThread;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong wouldBlock = new AtomicLong();
+
+    private volatile boolean running = true;
+    private volatile boolean sleeping;
+
+    LoopbackSession(LoopbackRouter router, Listener listener, int queueCapacity, boolean blockingSend,
+            String threadName) {
+        this.router = router;
+        this.listener = listener;
+        this.blockingSend = blockingSend;
+        this.transmitQueue = new ArrayBlockingQueue<TopicMessage>(queueCapacity);
+        this.receiveQueue = new ArrayBlockingQueue<TopicMessage>(queueCapacity);
+        this.contextThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, threadName);
+        this.contextThread.setDaemon(true);
+        this.contextThread.start();
+    }
+
+    @Override
+    public void subscribe(String topic) {
+        subscriptions.addIfAbsent(topic);
+    }
+
+    public void unsubscribe(String topic) {
+        subscriptions.remove(topic);
+    }
+
+    @Override
+    public int send(String topic, ByteBuffer payload) {
+        return send(topic, payload, HotPathTracer.sample());
+    }
+
+    @Override
+    public int send(String topic, ByteBuffer payload, long traceId) {
+        HotPathTracer.mark(traceId, HotPathTracer.SEND_ENQUEUE);
+        TopicMessage message = new TopicMessage(topic, LoopbackRouter.copy(payload));
+        if (!transmitQueue.offer(message)) {
+            if (!blockingSend) {
+                wouldBlock.incrementAndGet();
+                HotPathTracer.mark(traceId, HotPathTracer.SEND_RETURN);
+                return SolEnum.ReturnCode.WOULD_BLOCK;
+            }
+            try {
+                while (!transmitQueue.offer(message, 10, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        return SolEnum.ReturnCode.FAIL;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SolEnum.ReturnCode.FAIL;
+            }
+        }
+        sent.incrementAndGet();
+        wakeUp();
+        HotPathTracer.mark(traceId, HotPathTracer.SEND_RETURN);
+        return SolEnum.ReturnCode.OK;
+    }
+
+    boolean isSubscribed(String topic) {
+        for (String subscription : subscriptions) {
+            if (LoopbackRouter.matches(subscription, topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by the router on the sending session's context thread.
+     */
+    boolean deliver(String topic, byte[] payload) {
+        if (!receiveQueue.offer(new TopicMessage(topic, payload))) {
+            return false;
+        }
+        wakeUp();
+        return true;
+    }
+
+    private void wakeUp() {
+        if (sleeping) {
+            LockSupport.unpark(contextThread);
+        }
+    }
+
+    private void processEvents() {
+        while (running) {
+            int events = 0;
+            TopicMessage message;
+            while (events < DRAIN_BATCH && (message = transmitQueue.poll()) != null) {
+                router.route(message.getTopic(), message.getPayload());
+                events++;
+            }
+            while (events < 2 * DRAIN_BATCH && (message = receiveQueue.poll()) != null) {
+                received.incrementAndGet();
+                try {
+                    listener.onMessage(message.getTopic(), ByteBuffer.wrap(message.getPayload()));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                events++;
+            }
+            if (events == 0) {
+                sleeping = true;
+                if (transmitQueue.isEmpty() && receiveQueue.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(contextThread);
+        try {
+            contextThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        router.remove(this);
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getWouldBlock() {
+        return wouldBlock.get();
+    }
+}
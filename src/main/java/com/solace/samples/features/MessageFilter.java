@@ -0,0 +1,363 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * MessageFilter.java
+ *
+ * A content-based message filter, compiled once from a small expression and
+ * then evaluated directly on the topic name, the user properties and the
+ * attachment buffer, without decoding or copying the message.
+ *
+ * <p>
+ * An expression is a list of clauses joined by <code>&amp;&amp;</code>,
+ * and alternatives joined by <code>||</code> (AND binds tighter, there are
+ * no parentheses). Clauses:
+ * <ul>
+ * <li><code>topic[N] == value</code>, <code>topic[N] != value</code>: the
+ * Nth topic level, counting from 0
+ * <li><code>topic ~ subscription</code>: the topic matches a subscription
+ * with <code>*</code> and <code>&gt;</code> wildcards
+ * <li><code>TYPE@OFFSET op number</code>: a big-endian field at a fixed
+ * payload offset, TYPE one of byte, short, int, long, double, op one of
+ * <code>== != &lt; &lt;= &gt; &gt;=</code>; false if the payload is too short.
+ * Integer types only take whole numbers
+ * <li><code>size op number</code>: the payload size in bytes
+ * <li><code>prop[NAME] op value</code>: a user property. A number is
+ * compared numerically with any op; other values only with
+ * <code>==</code> and <code>!=</code>, as text. False if the property is
+ * missing, except for <code>!=</code>
+ * </ul>
+ *
+ * For example: <code>topic[1] == NYSE &amp;&amp; int@0 &gt; 100 || topic ~ fx/&gt;</code>.
+ * An empty expression matches everything.
+ */
+public final class MessageFilter {
+
+    private static final Pattern TOPIC_LEVEL = Pattern.compile("topic\\[(\\d+)\\]\\s*(==|!=)\\s*(\\S+)");
+    private static final Pattern TOPIC_MATCH = Pattern.compile("topic\\s*~\\s*(\\S+)");
+    private static final Pattern FIELD = Pattern
+            .compile("(byte|short|int|long|double)@(\\d+)\\s*(==|!=|<=|>=|<|>)\\s*(-?[0-9][0-9.eE+-]*)");
+    private static final Pattern SIZE = Pattern.compile("size\\s*(==|!=|<=|>=|<|>)\\s*(\\d+)");
+    private static final Pattern PROPERTY = Pattern.compile("prop\\[([^\\]]+)\\]\\s*(==|!=|<=|>=|<|>)\\s*(\\S+)");
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9][0-9.eE+-]*");
+
+    /**
+     * The user properties of a message, read on demand.
+     */
+    public interface UserProperties {
+        /**
+         * @return the property as text, or null if it is missing
+         */
+        String getString(String name);
+
+        /**
+         * @return the property as a number, or null if it is missing or not
+         *         numeric
+         */
+        Number getNumber(String name);
+    }
+
+    /**
+     * A single compiled clause.
+     */
+    interface Clause {
+        boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size);
+    }
+
+    private final String expression;
+    private final Clause[][] alternatives;
+    private final boolean needsPayload;
+    private final boolean needsUserProperties;
+
+    private MessageFilter(String expression, Clause[][] alternatives, boolean needsPayload,
+            boolean needsUserProperties) {
+        this.expression = expression;
+        this.alternatives = alternatives;
+        this.needsPayload = needsPayload;
+        this.needsUserProperties = needsUserProperties;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if a clause cannot be parsed
+     */
+    public static MessageFilter compile(String expression) throws IllegalArgumentException {
+        List<Clause[]> alternatives = new ArrayList<Clause[]>();
+        boolean needsPayload = false;
+        boolean needsUserProperties = false;
+        if (!expression.trim().isEmpty()) {
+            for (String alternative : expression.split("\\|\\|")) {
+                String[] parts = alternative.split("&&");
+                Clause[] clauses = new Clause[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    String part = parts[i].trim();
+                    clauses[i] = parse(part);
+                    needsPayload |= FIELD.matcher(part).matches();
+                    needsUserProperties |= PROPERTY.matcher(part).matches();
+                }
+                alternatives.add(clauses);
+            }
+        }
+        return new MessageFilter(expression, alternatives.toArray(new Clause[alternatives.size()][]), needsPayload,
+                needsUserProperties);
+    }
+
+    /**
+     * Matches a message without user properties.
+     *
+     * @see #matches(String, UserProperties, ByteBuffer, int)
+     */
+    public boolean matches(String topic, ByteBuffer payload, int size) {
+        return matches(topic, null, payload, size);
+    }
+
+    /**
+     * @param properties
+     *            the user properties, may be null if the message has none or
+     *            {@link #needsUserProperties()} is false
+     * @param payload
+     *            the attachment from its position to its limit, may be null
+     *            if {@link #needsPayload()} is false
+     * @param size
+     *            the attachment size
+     */
+    public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+        if (alternatives.length == 0) {
+            return true;
+        }
+        for (Clause[] clauses : alternatives) {
+            boolean all = true;
+            for (int i = 0; i < clauses.length && all; i++) {
+                all = clauses[i].matches(topic, properties, payload, size);
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the filter only looks at the topic and size, so the
+     *         attachment need not be fetched to evaluate it
+     */
+    public boolean needsPayload() {
+        return needsPayload;
+    }
+
+    /**
+     * @return false if the filter has no user property clause, so the user
+     *         properties need not be read to evaluate it
+     */
+    public boolean needsUserProperties() {
+        return needsUserProperties;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static Clause parse(String clause) {
+        Matcher m = TOPIC_LEVEL.matcher(clause);
+        if (m.matches()) {
+            final int level = Integer.parseInt(m.group(1));
+            final boolean equal = m.group(2).equals("==");
+            final String value = m.group(3);
+            return new Clause() {
+                @Override
+                public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+                    return topicLevelEquals(topic, level, value) == equal;
+                }
+            };
+        }
+        m = TOPIC_MATCH.matcher(clause);
+        if (m.matches()) {
+            final String subscription = m.group(1);
+            return new Clause() {
+                @Override
+                public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+                    return topic != null && LoopbackRouter.matches(subscription, topic);
+                }
+            };
+        }
+        m = SIZE.matcher(clause);
+        if (m.matches()) {
+            final int op = operator(m.group(1));
+            final long value = Long.parseLong(m.group(2));
+            return new Clause() {
+                @Override
+                public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+                    return compare(size, op, value);
+                }
+            };
+        }
+        m = FIELD.matcher(clause);
+        if (m.matches()) {
+            final String type = m.group(1);
+            final int offset = Integer.parseInt(m.group(2));
+            final int op = operator(m.group(3));
+            final double value = Double.parseDouble(m.group(4));
+            final boolean isDouble = "double".equals(type);
+            final long longValue = isDouble ? 0 : wholeNumber(m.group(4), clause);
+            final int width = "byte".equals(type) ? 1
+                    : "short".equals(type) ? 2 : "int".equals(type) ? 4 : 8;
+            return new Clause() {
+                @Override
+                public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+                    if (payload == null || payload.remaining() < offset + width) {
+                        return false;
+                    }
+                    int index = payload.position() + offset;
+                    switch (width) {
+                    case 1:
+                        return compare(payload.get(index), op, longValue);
+                    case 2:
+                        return compare(payload.getShort(index), op, longValue);
+                    case 4:
+                        return compare(payload.getInt(index), op, longValue);
+                    default:
+                        if (isDouble) {
+                            return compare(payload.getDouble(index), op, value);
+                        }
+                        return compare(payload.getLong(index), op, longValue);
+                    }
+                }
+            };
+        }
+        m = PROPERTY.matcher(clause);
+        if (m.matches()) {
+            return propertyClause(clause, m.group(1).trim(), operator(m.group(2)), m.group(3));
+        }
+        throw new IllegalArgumentException("Cannot parse filter clause: '" + clause + "'");
+    }
+
+    private static Clause propertyClause(String clause, final String name, final int op, final String literal) {
+        if (!NUMBER.matcher(literal).matches()) {
+            if (op != EQ && op != NE) {
+                throw new IllegalArgumentException("Only == and != compare text: '" + clause + "'");
+            }
+            return new Clause() {
+                @Override
+                public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+                    String actual = properties != null ? properties.getString(name) : null;
+                    return literal.equals(actual) == (op == EQ);
+                }
+            };
+        }
+        final double value = Double.parseDouble(literal);
+        return new Clause() {
+            @Override
+            public boolean matches(String topic, UserProperties properties, ByteBuffer payload, int size) {
+                Number actual = properties != null ? properties.getNumber(name) : null;
+                if (actual == null) {
+                    return op == NE;
+                }
+                if (actual instanceof Double || actual instanceof Float) {
+                    return compare(actual.doubleValue(), op, value);
+                }
+                // Whole literals compare exactly as long
+                return value == Math.rint(value) && Math.abs(value) < 0x1p63
+                        ? compare(actual.longValue(), op, (long) value)
+                        : compare((double) actual.longValue(), op, value);
+            }
+        };
+    }
+
+    private static long wholeNumber(String literal, String clause) throws IllegalArgumentException {
+        try {
+            return new BigDecimal(literal).longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException("Not a whole number for an integer field: '" + clause + "'");
+        }
+    }
+
+    static boolean topicLevelEquals(String topic, int level, String value) {
+        if (topic == null) {
+            return false;
+        }
+        int start = 0;
+        for (int i = 0; i < level; i++) {
+            start = topic.indexOf('/', start) + 1;
+            if (start == 0) {
+                return false;
+            }
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        return end - start == value.length() && topic.regionMatches(start, value, 0, value.length());
+    }
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    private static int operator(String op) {
+        return Arrays.asList("==", "!=", "<", "<=", ">", ">=").indexOf(op);
+    }
+
+    private static boolean compare(long actual, int op, long expected) {
+        switch (op) {
+        case EQ:
+            return actual == expected;
+        case NE:
+            return actual != expected;
+        case LT:
+            return actual < expected;
+        case LE:
+            return actual <= expected;
+        case GT:
+            return actual > expected;
+        default:
+            return actual >= expected;
+        }
+    }
+
+    private static boolean compare(double actual, int op, double expected) {
+        switch (op) {
+        case EQ:
+            return actual == expected;
+        case NE:
+            return actual != expected;
+        case LT:
+            return actual < expected;
+        case LE:
+            return actual <= expected;
+        case GT:
+            return actual > expected;
+        default:
+            return actual >= expected;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * MessageFilterBenchmark.java
+ *
+ * Compares copying every message to the heap and filtering in the handler,
+ * as <code>TopicSubscriber</code> would, against a {@link FilteringCallback}
+ * that filters on the attachment buffer first. Messages carry a field at
+ * offset 0 chosen so that 10% of them match. Reports CPU time, bytes copied
+ * and bytes allocated for each approach.
+ */
+public class MessageFilterBenchmark {
+
+    private static final String USAGE = "Usage: MessageFilterBenchmark [messages=5000000] [payload=256]"
+            + " [filter=\"int@0 < 100\"]";
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("messages", "5000000");
+        options.put("payload", "256");
+        options.put("filter", "int@0 < 100");
+        PerfSweep.parseOptions(args, 0, options, USAGE);
+        int messages = Integer.parseInt(options.get("messages"));
+        int payloadSize = Integer.parseInt(options.get("payload"));
+        final MessageFilter filter = MessageFilter.compile(options.get("filter"));
+
+        // Attachments as they would sit in the API's direct buffer
+        Random random = new Random(42);
+        ByteBuffer[] attachments = new ByteBuffer[1024];
+        String[] topics = new String[attachments.length];
+        for (int i = 0; i < attachments.length; i++) {
+            attachments[i] = NativeMemoryBudget.getDefault().allocateDirect("filter-benchmark",
+                    Math.max(payloadSize, 8));
+            attachments[i].putInt(0, random.nextInt(1000));
+            topics[i] = "md/NYSE/" + i;
+        }
+
+        VirtualThreadDispatcher.Handler handler = new VirtualThreadDispatcher.Handler() {
+            @Override
+            public void onMessage(String topic, byte[] payload) {
+                sink += payload.length;
+            }
+        };
+
+        System.out.println("MessageFilterBenchmark: " + messages + " messages of " + payloadSize
+                + " bytes, filter '" + filter + "'");
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1; // first round warms up
+
+            long[] start = measure();
+            long copied = 0;
+            long matched = 0;
+            for (int i = 0; i < messages; i++) {
+                ByteBuffer attachment = attachments[i & (attachments.length - 1)];
+                byte[] content = new byte[attachment.remaining()];
+                attachment.duplicate().get(content);
+                copied += content.length;
+                if (filter.matches(topics[i & (topics.length - 1)], ByteBuffer.wrap(content), content.length)) {
+                    matched++;
+                    handler.onMessage(null, content);
+                }
+            }
+            if (report) {
+                print("copy-then-filter", messages, matched, copied, start);
+            }
+
+            FilteringCallback callback = new FilteringCallback(filter, 0, -1, handler);
+            start = measure();
+            for (int i = 0; i < messages; i++) {
+                callback.onMessage(topics[i & (topics.length - 1)], attachments[i & (attachments.length - 1)]);
+            }
+            if (report) {
+                print("filter-first", messages, callback.getMatched(), callback.getBytesCopied(), start);
+            }
+        }
+    }
+
+    private static long[] measure() {
+        return new long[] { ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime(), allocatedBytes() };
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void print(String name, int messages, long matched, long copied, long[] start) {
+        long[] end = measure();
+        long cpu = end[0] - start[0];
+        System.out.println(String.format(" %-17s matched=%d (%.1f%%) cpu=%dms (%.1f ns/msg) copied=%dMB allocated=%dMB",
+                name, matched, matched * 100.0 / messages, TimeUnit.NANOSECONDS.toMillis(cpu), (double) cpu / messages,
+                copied >> 20, (end[1] - start[1]) >> 20));
+    }
+}
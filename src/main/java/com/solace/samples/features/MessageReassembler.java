@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * MessageReassembler.java
+ *
+ * Reassembles the fragments sent by a {@link ChunkingSession} and passes
+ * whole messages on to a {@link PerfSession.Listener}. Fragments of a large
+ * message are copied into a pooled direct buffer, which is handed to the
+ * listener once the last fragment arrives and reused after the listener
+ * returns. Messages that fit in a single fragment are passed on without a
+ * copy, and messages without a chunking header are passed on unchanged.
+ *
+ * <p>
+ * Incomplete messages are dropped once they are older than the timeout. A
+ * new large message is refused if holding it would take the bytes of
+ * incomplete messages over the memory cap, or if the native memory budget
+ * cannot hold it right now; the context thread never waits for memory.
+ * Headers whose count, length and offset do not agree with the fragment are
+ * counted as invalid before anything is allocated. Expiry is checked as
+ * fragments arrive, so an idle subscriber keeps incomplete messages until
+ * the next message.
+ *
+ * <p>
+ * Like any listener it is called on a single context thread and is not
+ * safe for concurrent use.
+ */
+public class MessageReassembler implements PerfSession.Listener {
+
+    private static final long EXPIRY_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Identifies a large message by its publisher and id.
+     */
+    private static final class Key {
+        long sourceId;
+        int messageId;
+
+        Key(long sourceId, int messageId) {
+            this.sourceId = sourceId;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return sourceId == key.sourceId && messageId == key.messageId;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (sourceId ^ (sourceId >>> 32)) * 31 + messageId;
+        }
+    }
+
+    /**
+     * A large message some of whose fragments have arrived.
+     */
+    private static final class Partial {
+        final Key key;
+        final String topic;
+        final ByteBuffer data;
+        final int count;
+        final BitSet received;
+        final long startedNanos;
+        int missing;
+
+        Partial(Key key, String topic, ByteBuffer data, int count, long startedNanos) {
+            this.key = key;
+            this.topic = topic;
+            this.data = data;
+            this.count = count;
+            this.received = new BitSet(count);
+            this.startedNanos = startedNanos;
+            this.missing = count;
+        }
+    }
+
+    private final PerfSession.Listener listener;
+    private final long timeoutNanos;
+    private final long maxIncompleteBytes;
+    private final DirectBufferPool pool;
+    private final LinkedHashMap<Key, Partial> partials = new LinkedHashMap<Key, Partial>();
+    private final Key lookup = new Key(0, 0);
+    private long incompleteBytes;
+    private long nextExpiryCheck;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong reassembled = new AtomicLong();
+    private final AtomicLong fragments = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * @param listener
+     *            receives whole messages
+     * @param timeout
+     *            how long an incomplete message is kept
+     * @param maxIncompleteBytes
+     *            the most bytes held for incomplete messages, also the most
+     *            kept in the buffer pool
+     */
+    public MessageReassembler(PerfSession.Listener listener, long timeout, TimeUnit unit, long maxIncompleteBytes) {
+        this.listener = listener;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.maxIncompleteBytes = maxIncompleteBytes;
+        this.pool = new DirectBufferPool("message-reassembler", maxIncompleteBytes);
+    }
+
+    @Override
+    public void onMessage(String topic, ByteBuffer payload) {
+        int base = payload.position();
+        if (payload.remaining() < ChunkingSession.HEADER_SIZE || payload.getInt(base) != ChunkingSession.MAGIC) {
+            delivered.incrementAndGet();
+            listener.onMessage(topic, payload);
+            return;
+        }
+        long sourceId = payload.getLong(base + 4);
+        int messageId = payload.getInt(base + 12);
+        int index = payload.getInt(base + 16);
+        int count = payload.getInt(base + 20);
+        int totalLength = payload.getInt(base + 24);
+        int offset = payload.getInt(base + 28);
+        ByteBuffer data = payload.duplicate();
+        data.position(base + ChunkingSession.HEADER_SIZE);
+
+        if (count == 1) {
+            delivered.incrementAndGet();
+            listener.onMessage(topic, data.slice());
+            return;
+        }
+        fragments.incrementAndGet();
+        long now = System.nanoTime();
+        if (now - nextExpiryCheck >= 0) {
+            expire(now);
+            nextExpiryCheck = now + EXPIRY_CHECK_NANOS;
+        }
+        if (!isConsistent(index, count, totalLength, offset, data.remaining())) {
+            invalid.incrementAndGet();
+            return;
+        }
+
+        lookup.sourceId = sourceId;
+        lookup.messageId = messageId;
+        Partial partial = partials.get(lookup);
+        if (partial == null) {
+            if (incompleteBytes + totalLength > maxIncompleteBytes) {
+                refused.incrementAndGet();
+                return;
+            }
+            ByteBuffer buffer = pool.tryAcquire(totalLength);
+            if (buffer == null) {
+                // Native memory budget used up, never wait on the context thread
+                refused.incrementAndGet();
+                return;
+            }
+            Key key = new Key(sourceId, messageId);
+            partial = new Partial(key, topic, buffer, count, now);
+            partials.put(key, partial);
+            incompleteBytes += totalLength;
+        } else if (partial.count != count || partial.data.limit() != totalLength) {
+            invalid.incrementAndGet();
+            return;
+        }
+        if (partial.received.get(index)) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        partial.received.set(index);
+        ByteBuffer target = partial.data.duplicate();
+        target.position(offset);
+        target.put(data);
+
+        if (--partial.missing == 0) {
+            partials.remove(partial.key);
+            incompleteBytes -= totalLength;
+            reassembled.incrementAndGet();
+            delivered.incrementAndGet();
+            try {
+                listener.onMessage(partial.topic, partial.data);
+            } finally {
+                pool.release(partial.data);
+            }
+        }
+    }
+
+    /**
+     * Checks a fragment header against the fragment itself. Every fragment
+     * but the last is a full chunk, so its size fixes the fragment count and
+     * its offset, and the last one ends the message.
+     */
+    static boolean isConsistent(int index, int count, int totalLength, int offset, int size) {
+        if (count < 2 || index < 0 || index >= count || size <= 0 || totalLength <= 0
+                || totalLength > DirectBufferPool.MAX_SIZE || count > totalLength || offset < 0
+                || offset > totalLength - size) {
+            return false;
+        }
+        if (index == count - 1) {
+            return offset + size == totalLength;
+        }
+        return count == (totalLength + (long) size - 1) / size && offset == (long) index * size;
+    }
+
+    private void expire(long now) {
+        Iterator<Partial> oldestFirst = partials.values().iterator();
+        while (oldestFirst.hasNext()) {
+            Partial partial = oldestFirst.next();
+            if (now - partial.startedNanos < timeoutNanos) {
+                break;
+            }
+            oldestFirst.remove();
+            incompleteBytes -= partial.data.limit();
+            pool.release(partial.data);
+            expired.incrementAndGet();
+        }
+    }
+
+    public int getIncompleteMessages() {
+        return partials.size();
+    }
+
+    public long getIncompleteBytes() {
+        return incompleteBytes;
+    }
+
+    /**
+     * Returns the number of whole messages passed to the listener.
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getReassembled() {
+        return reassembled.get();
+    }
+
+    public long getFragments() {
+        return fragments.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * Returns the number of fragments dropped because their message would
+     * have taken incomplete messages over the memory cap, or the native
+     * memory budget was used up.
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+}
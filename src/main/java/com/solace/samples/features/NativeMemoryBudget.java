@@ -0,0 +1,443 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+
+/**
+ *
+ * NativeMemoryBudget.java
+ *
+ * Accounts for the native memory held by direct buffers and message handles,
+ * per named component, and keeps the total within a budget. The JVM's heap
+ * limit does not cover either, so a process can be killed for its resident
+ * size while the heap looks healthy.
+ *
+ * <p>
+ * Allocations over budget apply back-pressure: the caller waits for memory
+ * to be released, as the JDK does when <code>-XX:MaxDirectMemorySize</code>
+ * is reached, and gets an {@link IllegalStateException} if none is released
+ * in time. {@link #tryAllocateDirect(String, int)} returns null instead of
+ * waiting, for callers such as the context thread that should not block.
+ *
+ * <p>
+ * A direct buffer's memory is freed only when the buffer is garbage
+ * collected, so buffers are tracked with phantom references and their bytes
+ * are released when they are collected. Message handles are released by
+ * {@link #destroy(MessageHandle)}. The native API does not report the size of
+ * a message handle, so a fixed estimate is counted for each.
+ *
+ * <p>
+ * The default budget is configured with system properties:
+ * <ul>
+ * <li><code>solace.samples.native.budget</code> in bytes, with an optional
+ * k, m or g suffix (default unlimited)</li>
+ * <li><code>solace.samples.native.wait-ms</code> is how long an allocation
+ * waits for memory (default 10000)</li>
+ * <li><code>solace.samples.native.handle-bytes</code> is the estimate per
+ * message handle (default 1024)</li>
+ * <li><code>solace.samples.native.report=true</code> prints
+ * {@link #report()} when the JVM exits</li>
+ * </ul>
+ */
+public class NativeMemoryBudget {
+
+    private static final NativeMemoryBudget DEFAULT = new NativeMemoryBudget(
+            parseBytes(System.getProperty("solace.samples.native.budget", "0")),
+            Long.getLong("solace.samples.native.wait-ms", 10000),
+            Integer.getInteger("solace.samples.native.handle-bytes", 1024));
+
+    static {
+        if (Boolean.getBoolean("solace.samples.native.report")) {
+            Runtime.getRuntime().addShutdownHook(new Thread("native-memory-report") {
+                @Override
+                public void run() {
+                    DEFAULT.report();
+                }
+            });
+        }
+    }
+
+    /**
+     * Live and cumulative native memory of one component.
+     */
+    public static class Component {
+        private final String name;
+        private final AtomicLong live = new AtomicLong();
+        private final AtomicLong peak = new AtomicLong();
+        private final AtomicLong allocations = new AtomicLong();
+        private final AtomicLong waits = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+
+        Component(String name) {
+            this.name = name;
+        }
+
+        void add(long bytes) {
+            long now = live.addAndGet(bytes);
+            long previous;
+            while (now > (previous = peak.get()) && !peak.compareAndSet(previous, now)) {
+                // Retry until the peak is at least now
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLive() {
+            return live.get();
+        }
+
+        public long getPeak() {
+            return peak.get();
+        }
+
+        public long getAllocations() {
+            return allocations.get();
+        }
+
+        public long getWaits() {
+            return waits.get();
+        }
+
+        public long getRejections() {
+            return rejections.get();
+        }
+    }
+
+    /**
+     * Releases a buffer's bytes once the buffer has been collected.
+     */
+    private static class BufferReference extends PhantomReference<ByteBuffer> {
+        final Component component;
+        final int bytes;
+
+        BufferReference(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue, Component component) {
+            super(buffer, queue);
+            this.component = component;
+            this.bytes = buffer.capacity();
+        }
+    }
+
+    private final long budget;
+    private final long waitMillis;
+    private final int handleBytes;
+    private final AtomicLong used = new AtomicLong();
+    private final ConcurrentHashMap<String, Component> components = new ConcurrentHashMap<String, Component>();
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+    // Keeps the references reachable until they are enqueued
+    private final Map<Reference<ByteBuffer>, Boolean> buffers = new ConcurrentHashMap<Reference<ByteBuffer>, Boolean>();
+    private final Map<MessageHandle, Component> messageHandles = new ConcurrentHashMap<MessageHandle, Component>();
+
+    /**
+     * @param budget
+     *            the most native bytes that may be live, 0 for no limit
+     * @param waitMillis
+     *            how long an allocation over budget waits for memory
+     * @param handleBytes
+     *            the bytes counted for each message handle
+     */
+    public NativeMemoryBudget(long budget, long waitMillis, int handleBytes) {
+        this.budget = budget > 0 ? budget : Long.MAX_VALUE;
+        this.waitMillis = waitMillis;
+        this.handleBytes = handleBytes;
+    }
+
+    /**
+     * Returns the budget configured by system properties, used by the
+     * samples.
+     */
+    public static NativeMemoryBudget getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Allocates a direct buffer, waiting for memory if the budget is used up.
+     *
+     * @throws IllegalStateException
+     *             if the budget is still used up after the configured wait,
+     *             or <code>capacity</code> is larger than the whole budget
+     */
+    public ByteBuffer allocateDirect(String component, int capacity) throws IllegalStateException {
+        Component owner = componentFor(component);
+        checkCapacity(owner, capacity);
+        reserve(owner, capacity);
+        return track(owner, capacity);
+    }
+
+    /**
+     * Allocates a direct buffer if the budget allows it.
+     *
+     * @return the buffer, or null if the budget is used up
+     */
+    public ByteBuffer tryAllocateDirect(String component, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        Component owner = componentFor(component);
+        releaseCollected();
+        if (capacity > budget || !tryReserve(capacity)) {
+            owner.rejections.incrementAndGet();
+            return null;
+        }
+        return track(owner, capacity);
+    }
+
+    /**
+     * Returns <code>buffer</code> if it can hold <code>size</code> bytes,
+     * otherwise a new buffer of <code>size</code> rounded up to a power of
+     * two, waiting for memory if needed. The old buffer is released once it
+     * is collected.
+     */
+    public ByteBuffer ensureCapacity(String component, ByteBuffer buffer, int size) throws IllegalStateException {
+        if (buffer != null && buffer.capacity() >= size) {
+            return buffer;
+        }
+        return allocateDirect(component, roundUp(size));
+    }
+
+    /**
+     * Like {@link #ensureCapacity(String, ByteBuffer, int)} but never waits,
+     * for use on the context thread.
+     *
+     * @return a buffer that can hold <code>size</code> bytes, or null if the
+     *         budget is used up
+     */
+    public ByteBuffer tryEnsureCapacity(String component, ByteBuffer buffer, int size) {
+        if (buffer != null && buffer.capacity() >= size) {
+            return buffer;
+        }
+        return tryAllocateDirect(component, roundUp(size));
+    }
+
+    /**
+     * Rounds up to a power of two, or returns <code>size</code> itself
+     * above the largest int power of two.
+     */
+    static int roundUp(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        if (size > 1 << 30) {
+            return size;
+        }
+        return size <= 1 ? 1 : 1 << (32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * Allocates and creates a message handle, waiting for memory if the
+     * budget is used up.
+     */
+    public MessageHandle newMessageHandle(String component) throws IllegalStateException {
+        Component owner = componentFor(component);
+        reserve(owner, handleBytes);
+        MessageHandle messageHandle = Solclient.Allocator.newMessageHandle();
+        int rc = Solclient.createMessageForHandle(messageHandle);
+        if (rc != SolEnum.ReturnCode.OK) {
+            release(handleBytes);
+            RouterSession.assertReturnCode("Solclient.createMessage()", rc, SolEnum.ReturnCode.OK);
+        }
+        owner.allocations.incrementAndGet();
+        owner.add(handleBytes);
+        messageHandles.put(messageHandle, owner);
+        return messageHandle;
+    }
+
+    /**
+     * Destroys a message handle and releases its bytes if it was allocated
+     * by {@link #newMessageHandle(String)}.
+     */
+    public void destroy(MessageHandle messageHandle) {
+        Component owner = messageHandles.remove(messageHandle);
+        try {
+            messageHandle.destroy();
+        } finally {
+            if (owner != null) {
+                owner.add(-handleBytes);
+                release(handleBytes);
+            }
+        }
+    }
+
+    private Component componentFor(String name) {
+        Component component = components.get(name);
+        if (component == null) {
+            Component created = new Component(name);
+            component = components.putIfAbsent(name, created);
+            if (component == null) {
+                component = created;
+            }
+        }
+        return component;
+    }
+
+    private ByteBuffer track(Component owner, int capacity) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } catch (OutOfMemoryError | RuntimeException e) {
+            release(capacity);
+            throw e;
+        }
+        buffers.put(new BufferReference(buffer, collected, owner), Boolean.TRUE);
+        owner.allocations.incrementAndGet();
+        owner.add(capacity);
+        return buffer;
+    }
+
+    private void checkCapacity(Component owner, int capacity) throws IllegalStateException {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        if (capacity > budget) {
+            owner.rejections.incrementAndGet();
+            throw new IllegalStateException("Native memory budget of " + budget + " bytes cannot hold " + owner.name
+                    + " buffer of " + capacity + " bytes");
+        }
+    }
+
+    private void reserve(Component owner, int bytes) throws IllegalStateException {
+        releaseCollected();
+        if (tryReserve(bytes)) {
+            return;
+        }
+        owner.waits.incrementAndGet();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        // Unreachable buffers only release their memory once collected
+        System.gc();
+        try {
+            do {
+                Reference<? extends ByteBuffer> reference = collected.remove(1);
+                if (reference != null) {
+                    releaseReference(reference);
+                    releaseCollected();
+                }
+                if (tryReserve(bytes)) {
+                    return;
+                }
+            } while (System.nanoTime() < deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        owner.rejections.incrementAndGet();
+        throw new IllegalStateException("Native memory budget of " + budget + " bytes used up: " + owner.name
+                + " needs " + bytes + " bytes, " + used.get() + " live");
+    }
+
+    private boolean tryReserve(int bytes) {
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > budget) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private void release(int bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    private void releaseCollected() {
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = collected.poll()) != null) {
+            releaseReference(reference);
+        }
+    }
+
+    private void releaseReference(Reference<? extends ByteBuffer> reference) {
+        buffers.remove(reference);
+        BufferReference buffer = (BufferReference) reference;
+        buffer.component.add(-buffer.bytes);
+        release(buffer.bytes);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the native bytes accounted for, including buffers that are
+     * unreachable but not yet collected.
+     */
+    public long getUsed() {
+        releaseCollected();
+        return used.get();
+    }
+
+    /**
+     * Returns the components by name.
+     */
+    public Map<String, Component> getComponents() {
+        releaseCollected();
+        return new TreeMap<String, Component>(components);
+    }
+
+    /**
+     * Prints live and peak bytes per component, and the JVM's own count of
+     * direct memory, which also includes buffers allocated elsewhere.
+     */
+    public void report() {
+        System.out.println(" Native memory: " + getUsed() / 1024 + "KB live"
+                + (budget == Long.MAX_VALUE ? "" : " of " + budget / 1024 + "KB budget"));
+        for (Component component : getComponents().values()) {
+            System.out.println(String.format("  %-24s live=%8dKB peak=%8dKB allocations=%-8d waits=%-6d rejections=%d",
+                    component.name, component.getLive() / 1024, component.getPeak() / 1024,
+                    component.getAllocations(), component.getWaits(), component.getRejections()));
+        }
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                System.out.println(String.format("  %-24s used=%8dKB buffers=%d", "jvm direct pool",
+                        pool.getMemoryUsed() / 1024, pool.getCount()));
+            }
+        }
+    }
+
+    static long parseBytes(String value) {
+        String number = value.trim().toLowerCase();
+        long unit = 1;
+        if (number.endsWith("k")) {
+            unit = 1024;
+        } else if (number.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (number.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit > 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        return Long.parseLong(number) * unit;
+    }
+}
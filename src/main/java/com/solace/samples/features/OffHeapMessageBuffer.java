@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * OffHeapMessageBuffer.java
+ *
+ * A bounded FIFO of (topic, payload) records held in a single direct buffer,
+ * so messages buffered during an outage do not grow the Java heap. Each
+ * record is stored as <code>[topic length][topic UTF-8][payload length][payload]</code>
+ * in a ring that wraps around the end of the buffer.
+ *
+ * <p>
+ * Not thread-safe; callers synchronize.
+ */
+public class OffHeapMessageBuffer {
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private int head;
+    private int tail;
+    private int used;
+    private int count;
+
+    public OffHeapMessageBuffer(int capacityBytes) {
+        this.ring = NativeMemoryBudget.getDefault().allocateDirect("offheap-buffer", capacityBytes);
+        this.capacity = capacityBytes;
+    }
+
+    /**
+     * Appends a copy of the remaining bytes of <code>payload</code>.
+     *
+     * @return false if there is no room for the record
+     */
+    public boolean offer(String topic, ByteBuffer payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + topicBytes.length + payload.remaining();
+        if (length > capacity - used) {
+            return false;
+        }
+        putInt(topicBytes.length);
+        put(ByteBuffer.wrap(topicBytes));
+        putInt(payload.remaining());
+        put(payload.duplicate());
+        used += length;
+        count++;
+        return true;
+    }
+
+    /**
+     * Copies the payload of the oldest record into <code>payload</code>,
+     * which must be large enough (see {@link #peekPayloadSize()}), and
+     * flips it. The record stays in the buffer until {@link #remove()}.
+     *
+     * @return the topic of the oldest record, or null if empty
+     */
+    public String peek(ByteBuffer payload) {
+        if (count == 0) {
+            return null;
+        }
+        int position = head;
+        int topicLength = getInt(position);
+        position = advance(position, 4);
+        byte[] topicBytes = new byte[topicLength];
+        get(position, ByteBuffer.wrap(topicBytes));
+        position = advance(position, topicLength);
+        int payloadLength = getInt(position);
+        position = advance(position, 4);
+        payload.clear();
+        payload.limit(payloadLength);
+        get(position, payload);
+        payload.flip();
+        return new String(topicBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the payload size of the oldest record, or -1 if empty
+     */
+    public int peekPayloadSize() {
+        if (count == 0) {
+            return -1;
+        }
+        int topicLength = getInt(head);
+        return getInt(advance(head, 4 + topicLength));
+    }
+
+    /**
+     * Discards the oldest record.
+     */
+    public void remove() {
+        if (count == 0) {
+            return;
+        }
+        int topicLength = getInt(head);
+        int payloadLength = getInt(advance(head, 4 + topicLength));
+        int length = 8 + topicLength + payloadLength;
+        head = advance(head, length);
+        used -= length;
+        count--;
+        if (count == 0) {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int usedBytes() {
+        return used;
+    }
+
+    public int capacityBytes() {
+        return capacity;
+    }
+
+    private int advance(int position, int length) {
+        position += length;
+        return position >= capacity ? position - capacity : position;
+    }
+
+    private void putInt(int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            ring.put(tail, (byte) (value >>> shift));
+            tail = advance(tail, 1);
+        }
+    }
+
+    private int getInt(int position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (ring.get(position) & 0xff);
+            position = advance(position, 1);
+        }
+        return value;
+    }
+
+    /**
+     * Writes all remaining bytes of <code>src</code> at the tail.
+     */
+    private void put(ByteBuffer src) {
+        int length = src.remaining();
+        int first = Math.min(length, capacity - tail);
+        ByteBuffer target = ring.duplicate();
+        target.position(tail);
+        ByteBuffer part = src.duplicate();
+        part.limit(part.position() + first);
+        target.put(part);
+        if (first < length) {
+            part.position(part.limit());
+            part.limit(src.limit());
+            target.position(0);
+            target.put(part);
+        }
+        tail = advance(tail, length);
+    }
+
+    /**
+     * Reads <code>dst.remaining()</code> bytes starting at
+     * <code>position</code>.
+     */
+    private void get(int position, ByteBuffer dst) {
+        int length = dst.remaining();
+        int first = Math.min(length, capacity - position);
+        ByteBuffer source = ring.duplicate();
+        source.position(position);
+        source.limit(position + first);
+        dst.put(source);
+        if (first < length) {
+            source.limit(length - first);
+            source.position(0);
+            dst.put(source);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * PerfCompare.java
+ *
+ * Compares two {@link PerfSweep} result files run by run and flags
+ * regressions: lower throughput, or higher latency or CPU per message, by
+ * more than a threshold. Runs are matched on target, payload, rate, sessions
+ * and batch; when a file holds the same run more than once, the last row
+ * wins.
+ *
+ * <p>
+ * Exits with status 1 when a regression is found, so it can gate a build.
+ */
+public class PerfCompare {
+
+    private static final List<String> KEY_COLUMNS = Arrays.asList("target", "payload", "rate", "sessions", "batch");
+
+    /** Metrics where a higher value is better. */
+    private static final List<String> HIGHER_IS_BETTER = Arrays.asList("throughput_msgs_per_s");
+
+    /** Metrics where a lower value is better. */
+    private static final List<String> LOWER_IS_BETTER = Arrays.asList("p50_us", "p99_us", "cpu_us_per_msg");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: PerfCompare <baseline.csv> <candidate.csv> [threshold-percent=5]");
+            System.out.println();
+            System.exit(-1);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 5.0;
+        Map<String, Map<String, String>> baseline = read(args[0]);
+        Map<String, Map<String, String>> candidate = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Map<String, String>> entry : candidate.entrySet()) {
+            Map<String, String> before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(" " + entry.getKey() + ": no baseline");
+                continue;
+            }
+            StringBuilder line = new StringBuilder(" " + entry.getKey() + ":");
+            boolean regressed = false;
+            for (String metric : HIGHER_IS_BETTER) {
+                double change = change(before.get(metric), entry.getValue().get(metric));
+                line.append(String.format(" %s %+.1f%%", metric, change));
+                regressed |= change < -threshold;
+            }
+            for (String metric : LOWER_IS_BETTER) {
+                double change = change(before.get(metric), entry.getValue().get(metric));
+                line.append(String.format(" %s %+.1f%%", metric, change));
+                regressed |= change > threshold;
+            }
+            if (regressed) {
+                regressions++;
+                line.append("  <-- REGRESSION");
+            }
+            System.out.println(line);
+        }
+
+        System.out.println(String.format("%d of %d runs regressed by more than %.1f%%", regressions, candidate.size(),
+                threshold));
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static double change(String before, String after) {
+        if (before == null || after == null) {
+            return 0;
+        }
+        double b = Double.parseDouble(before);
+        double a = Double.parseDouble(after);
+        if (b == 0) {
+            return 0;
+        }
+        return (a - b) * 100.0 / b;
+    }
+
+    static Map<String, Map<String, String>> read(String file) throws IOException {
+        Map<String, Map<String, String>> runs = new LinkedHashMap<String, Map<String, String>>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                return runs;
+            }
+            String[] header = headerLine.split(",");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] values = line.split(",");
+                Map<String, String> row = new LinkedHashMap<String, String>();
+                for (int i = 0; i < header.length && i < values.length; i++) {
+                    row.put(header[i], values[i]);
+                }
+                StringBuilder key = new StringBuilder();
+                for (String column : KEY_COLUMNS) {
+                    key.append(column).append('=').append(row.get(column)).append(' ');
+                }
+                runs.put(key.toString().trim(), row);
+            }
+        } finally {
+            reader.close();
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * PerfSession.java
+ *
+ * The small slice of a session that the performance tools need, so that the
+ * same tool can run against a Solace message router ({@link RouterSession})
+ * or against the in-process {@link LoopbackRouter} stand-in.
+ *
+ * <p>
+ * A session is used by one sending thread. Messages are delivered to the
+ * {@link Listener} on the session's own context thread.
+ */
+public interface PerfSession {
+
+    /**
+     * Receives messages on the session's context thread. The payload buffer
+     * is only valid for the duration of the call.
+     */
+    interface Listener {
+        void onMessage(String topic, ByteBuffer payload);
+    }
+
+    /**
+     * Adds a topic subscription and waits for it to be in place.
+     */
+    void subscribe(String topic);
+
+    /**
+     * Sends the remaining bytes of <code>payload</code> as a direct message.
+     *
+     * @return a {@code SolEnum.ReturnCode}, e.g. OK, or WOULD_BLOCK when the
+     *         session does not block on a full transmit window
+     */
+    int send(String topic, ByteBuffer payload);
+
+    /**
+     * Sends as part of a {@link HotPathTracer} trace started by the caller,
+     * e.g. one whose id travels in the payload. Sessions that do not trace
+     * their sends ignore the id.
+     */
+    default int send(String topic, ByteBuffer payload, long traceId) {
+        return send(topic, payload);
+    }
+
+    /**
+     * Disconnects and releases the session.
+     */
+    void close();
+}
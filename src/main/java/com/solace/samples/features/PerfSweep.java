@@ -0,0 +1,378 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solacesystems.solclientj.core.SolEnum;
+
+/**
+ *
+ * PerfSweep.java
+ *
+ * Runs publishers and subscribers together and sweeps payload size, publish
+ * rate, number of sessions and send batch size. Each session publishes to,
+ * and subscribes to, its own topic, so every message is timed from send to
+ * receive within this JVM.
+ *
+ * <p>
+ * Every run appends a CSV row with throughput, latency percentiles, and the
+ * CPU and GC time spent during the measured interval. Compare two result
+ * files with {@link PerfCompare}.
+ *
+ * <pre>
+ * PerfSweep loopback payload=64,1024 sessions=1,4 out=build/perf/baseline.csv
+ * PerfSweep &lt;host:port&gt; &lt;client-username@message-vpn&gt; &lt;client-password&gt; rate=10000,50000 batch=1,16
+ * </pre>
+ *
+ * A <code>rate</code> of 0 publishes as fast as the session accepts messages.
+ * The rate is the total over all sessions.
+ */
+public class PerfSweep {
+
+    static final String[] COLUMNS = { "target", "payload", "rate", "sessions", "batch", "duration_s", "sent",
+            "received", "send_failures", "throughput_msgs_per_s", "p50_us", "p90_us", "p99_us", "p999_us", "max_us",
+            "cpu_ms", "cpu_us_per_msg", "gc_ms", "gc_count" };
+
+    private static final String USAGE = "Usage: PerfSweep <loopback | host:port> [client-username@message-vpn client-password]"
+            + " [payload=64,1024] [rate=0] [sessions=1] [batch=1] [duration=5] [warmup=1] [out=build/perf/sweep.csv]";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println(USAGE);
+            System.out.println();
+            System.exit(-1);
+        }
+        Target target = Target.parse(args, USAGE);
+
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("payload", "64,1024");
+        options.put("rate", "0");
+        options.put("sessions", "1");
+        options.put("batch", "1");
+        options.put("duration", "5");
+        options.put("warmup", "1");
+        options.put("out", "build/perf/sweep.csv");
+        parseOptions(args, target.optionsStart, options, USAGE);
+
+        int duration = Integer.parseInt(options.get("duration"));
+        int warmup = Integer.parseInt(options.get("warmup"));
+        File out = new File(options.get("out"));
+
+        System.out.println("PerfSweep against " + target.getName() + ", writing " + out);
+        for (int payload : parseList(options.get("payload"))) {
+            for (int rate : parseList(options.get("rate"))) {
+                for (int sessions : parseList(options.get("sessions"))) {
+                    for (int batch : parseList(options.get("batch"))) {
+                        String[] row = run(target, payload, rate, sessions, batch, duration, warmup);
+                        print(row);
+                        append(out, row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Where the sessions of a run connect to.
+     */
+    static class Target {
+        final boolean loopback;
+        final String host;
+        final String username;
+        final String vpnName;
+        final String password;
+        final int optionsStart;
+
+        Target(boolean loopback, String host, String username, String vpnName, String password, int optionsStart) {
+            this.loopback = loopback;
+            this.host = host;
+            this.username = username;
+            this.vpnName = vpnName;
+            this.password = password;
+            this.optionsStart = optionsStart;
+        }
+
+        /**
+         * Parses <code>loopback</code>, or
+         * <code>&lt;host:port&gt; &lt;client-username@message-vpn&gt; &lt;client-password&gt;</code>,
+         * from the start of the command line. Prints the usage and exits if
+         * they are missing.
+         */
+        static Target parse(String[] args, String usage) {
+            if (args.length < 1) {
+                System.out.println(usage);
+                System.out.println();
+                System.exit(-1);
+            }
+            if ("loopback".equals(args[0])) {
+                return new Target(true, null, null, null, null, 1);
+            }
+            String[] userSplit = args.length >= 3 ? args[1].split("@") : new String[0];
+            if (userSplit.length != 2 || userSplit[0].isEmpty() || userSplit[1].isEmpty()) {
+                System.out.println(usage);
+                System.out.println();
+                System.exit(-1);
+            }
+            return new Target(false, args[0], userSplit[0], userSplit[1], args[2], 3);
+        }
+
+        PerfSession open(LoopbackRouter router, PerfSession.Listener listener) {
+            if (loopback) {
+                return router.newSession(listener);
+            }
+            return new RouterSession(host, username, vpnName, password, listener);
+        }
+
+        String getName() {
+            return loopback ? "loopback" : host;
+        }
+    }
+
+    /**
+     * Runs a single point of the sweep and returns its result row.
+     */
+    static String[] run(Target target, final int payloadSize, int rate, int sessions, final int batch, int duration,
+            int warmup) throws InterruptedException {
+        final AtomicLong measureFrom = new AtomicLong(Long.MAX_VALUE);
+        final LatencyHistogram[] histograms = new LatencyHistogram[sessions];
+        final AtomicLong received = new AtomicLong();
+        LoopbackRouter router = target.loopback ? new LoopbackRouter() : null;
+
+        final PerfSession[] perfSessions = new PerfSession[sessions];
+        for (int i = 0; i < sessions; i++) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histograms[i] = histogram;
+            perfSessions[i] = target.open(router, new PerfSession.Listener() {
+                @Override
+                public void onMessage(String topic, ByteBuffer payload) {
+                    long sentAt = payload.getLong(payload.position());
+                    if (sentAt >= measureFrom.get()) {
+                        histogram.record(System.nanoTime() - sentAt);
+                        received.incrementAndGet();
+                    }
+                }
+            });
+            perfSessions[i].subscribe("perf/sweep/" + i);
+        }
+
+        final long intervalNanos = rate > 0 ? (long) (batch * 1e9 * sessions / rate) : 0;
+        final long[] sent = new long[sessions];
+        final long[] failed = new long[sessions];
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread[] publishers = new Thread[sessions];
+        for (int i = 0; i < sessions; i++) {
+            final int index = i;
+            publishers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    PerfSession session = perfSessions[index];
+                    String topic = "perf/sweep/" + index;
+                    ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("perf-sweep",
+                            Math.max(8, payloadSize));
+                    long next = System.nanoTime();
+                    while (!stop.get()) {
+                        for (int b = 0; b < batch; b++) {
+                            payload.clear();
+                            long now = System.nanoTime();
+                            payload.putLong(0, now);
+                            int rc = session.send(topic, payload);
+                            if (now >= measureFrom.get()) {
+                                if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+                                    sent[index]++;
+                                } else {
+                                    failed[index]++;
+                                }
+                            }
+                        }
+                        if (intervalNanos > 0) {
+                            next += intervalNanos;
+                            pace(next);
+                        }
+                    }
+                }
+            }, "perf-publisher-" + i);
+            publishers[i].start();
+        }
+
+        TimeUnit.SECONDS.sleep(warmup);
+        long cpuStart = processCpuNanos();
+        long[] gcStart = gcTotals();
+        long start = System.nanoTime();
+        measureFrom.set(start);
+        TimeUnit.SECONDS.sleep(duration);
+        stop.set(true);
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Let in-flight messages arrive before closing the sessions
+        long last = -1;
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (received.get() != last && System.nanoTime() < drainDeadline) {
+            last = received.get();
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        long cpu = processCpuNanos() - cpuStart;
+        long[] gcEnd = gcTotals();
+        for (PerfSession session : perfSessions) {
+            session.close();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long totalSent = 0;
+        long totalFailed = 0;
+        for (int i = 0; i < sessions; i++) {
+            latency.add(histograms[i]);
+            totalSent += sent[i];
+            totalFailed += failed[i];
+        }
+        long totalReceived = received.get();
+        // Locale.ROOT keeps the decimal point a '.' whatever the default locale
+        return new String[] { target.getName(), Integer.toString(payloadSize), Integer.toString(rate),
+                Integer.toString(sessions), Integer.toString(batch),
+                String.format(Locale.ROOT, "%.3f", elapsed / 1e9), Long.toString(totalSent),
+                Long.toString(totalReceived), Long.toString(totalFailed),
+                String.format(Locale.ROOT, "%.0f", totalReceived * 1e9 / elapsed),
+                micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(90)),
+                micros(latency.getValueAtPercentile(99)), micros(latency.getValueAtPercentile(99.9)),
+                micros(latency.getMax()), Long.toString(TimeUnit.NANOSECONDS.toMillis(cpu)),
+                String.format(Locale.ROOT, "%.3f", totalReceived == 0 ? 0 : cpu / 1e3 / totalReceived),
+                Long.toString(gcEnd[0] - gcStart[0]), Long.toString(gcEnd[1] - gcStart[1]) };
+    }
+
+    /**
+     * Waits until <code>deadline</code>, parking while it is far off and
+     * spinning for the last few microseconds.
+     */
+    static void pace(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 50000) {
+                LockSupport.parkNanos(remaining - 50000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+    }
+
+    /**
+     * @return process CPU time in nanoseconds, or -1 if the JVM does not
+     *         report it
+     */
+    static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * @return total GC time in milliseconds and total collection count
+     */
+    static long[] gcTotals() {
+        long time = 0;
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return new long[] { time, count };
+    }
+
+    /**
+     * Overrides <code>options</code> with the <code>name=value</code>
+     * arguments from <code>start</code> on. Prints the usage and exits on an
+     * unknown option.
+     */
+    static void parseOptions(String[] args, int start, Map<String, String> options, String usage) {
+        for (int i = start; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0 || !options.containsKey(args[i].substring(0, eq))) {
+                System.out.println("Unknown option: " + args[i]);
+                System.out.println(usage);
+                System.out.println();
+                System.exit(-1);
+            }
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+    }
+
+    static List<Integer> parseList(String value) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (String item : value.split(",")) {
+            values.add(Integer.parseInt(item.trim()));
+        }
+        return values;
+    }
+
+    private static void print(String[] row) {
+        StringBuilder line = new StringBuilder(" ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            line.append(COLUMNS[i]).append('=').append(row[i]).append(' ');
+        }
+        System.out.println(line.toString().trim());
+    }
+
+    static void append(File out, String[] row) throws IOException {
+        append(out, COLUMNS, row);
+    }
+
+    /**
+     * Appends a row to a CSV file, writing the header first if the file is
+     * new.
+     */
+    static void append(File out, String[] columns, String[] row) throws IOException {
+        boolean writeHeader = !out.exists() || out.length() == 0;
+        if (out.getParentFile() != null) {
+            out.getParentFile().mkdirs();
+        }
+        PrintWriter writer = new PrintWriter(new FileWriter(out, true));
+        try {
+            if (writeHeader) {
+                writer.println(String.join(",", columns));
+            }
+            writer.println(String.join(",", row));
+        } finally {
+            writer.close();
+        }
+    }
+}
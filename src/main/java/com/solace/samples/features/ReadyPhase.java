@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * ReadyPhase.java
+ *
+ * Runs the startup steps of an application, e.g. API initialization and
+ * connect, hot path warm-up and subscriptions, in parallel where they do not
+ * depend on each other, and records how long startup took:
+ *
+ * <ul>
+ * <li>each step's duration
+ * <li>time to ready: all startup steps done
+ * <li>time to first message: the first real message handled
+ * <li>time to steady state: JIT compilation has settled after ready, i.e.
+ * the hot path is compiled
+ * </ul>
+ *
+ * All times are reported from JVM start, so they include JVM startup and
+ * class loading, which a class-data-sharing archive shortens.
+ */
+public class ReadyPhase {
+
+    private static final long STEADY_POLL_MILLIS = 250;
+    private static final long STEADY_QUIET_MILLIS = 1000;
+
+    private final ExecutorService executor;
+    private final Map<String, Long> stepMillis = new LinkedHashMap<String, Long>();
+    private volatile long readyUptime = -1;
+    private volatile long firstMessageUptime = -1;
+    private volatile long steadyStateUptime = -1;
+
+    public ReadyPhase() {
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ready-phase");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a step on its own thread.
+     */
+    public <T> Future<T> start(final String name, final Callable<T> step) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return step.call();
+                } finally {
+                    synchronized (stepMillis) {
+                        stepMillis.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for a step started with {@link #start(String, Callable)}.
+     *
+     * @throws IllegalStateException
+     *             if the step failed
+     */
+    public <T> T await(Future<T> step) throws InterruptedException, IllegalStateException {
+        try {
+            return step.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Startup step failed", e.getCause());
+        }
+    }
+
+    /**
+     * Marks the application ready and starts watching for steady state.
+     */
+    public void ready() {
+        readyUptime = uptime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                watchForSteadyState();
+            }
+        });
+    }
+
+    /**
+     * Call for every real message handled; only the first is recorded and
+     * later calls cost a volatile read.
+     */
+    public void onMessage() {
+        if (firstMessageUptime < 0) {
+            synchronized (this) {
+                if (firstMessageUptime < 0) {
+                    firstMessageUptime = uptime();
+                }
+            }
+        }
+    }
+
+    private void watchForSteadyState() {
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        if (compiler == null || !compiler.isCompilationTimeMonitoringSupported()) {
+            return;
+        }
+        long lastChange = System.nanoTime();
+        long lastTotal = compiler.getTotalCompilationTime();
+        try {
+            while (steadyStateUptime < 0) {
+                TimeUnit.MILLISECONDS.sleep(STEADY_POLL_MILLIS);
+                long total = compiler.getTotalCompilationTime();
+                if (total != lastTotal) {
+                    lastTotal = total;
+                    lastChange = System.nanoTime();
+                } else if (System.nanoTime() - lastChange >= TimeUnit.MILLISECONDS.toNanos(STEADY_QUIET_MILLIS)) {
+                    steadyStateUptime = uptime() - STEADY_QUIET_MILLIS;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits up to the timeout for steady state.
+     *
+     * @return true if steady state was reached
+     */
+    public boolean awaitSteadyState(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (steadyStateUptime < 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(STEADY_POLL_MILLIS);
+        }
+        return steadyStateUptime >= 0;
+    }
+
+    static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    public void report() {
+        System.out.println(" Startup step durations:");
+        synchronized (stepMillis) {
+            for (Map.Entry<String, Long> step : stepMillis.entrySet()) {
+                System.out.println(String.format("  %-29s %6dms", step.getKey(), step.getValue()));
+            }
+        }
+        System.out.println(" Since JVM start:");
+        System.out.println(String.format("  %-29s %6s", "time-to-ready", format(readyUptime)));
+        System.out.println(String.format("  %-29s %6s", "time-to-first-message", format(firstMessageUptime)));
+        System.out.println(String.format("  %-29s %6s", "time-to-steady-state", format(steadyStateUptime)));
+    }
+
+    private static String format(long uptime) {
+        return uptime < 0 ? "n/a" : uptime + "ms";
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public long getReadyUptime() {
+        return readyUptime;
+    }
+
+    public long getFirstMessageUptime() {
+        return firstMessageUptime;
+    }
+
+    public long getSteadyStateUptime() {
+        return steadyStateUptime;
+    }
+}
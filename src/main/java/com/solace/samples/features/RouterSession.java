@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.event.MessageCallback;
+import com.solacesystems.solclientj.core.event.SessionEventCallback;
+import com.solacesystems.solclientj.core.handle.ContextHandle;
+import com.solacesystems.solclientj.core.handle.Handle;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.MessageSupport;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+import com.solacesystems.solclientj.core.resource.Destination;
+import com.solacesystems.solclientj.core.resource.Topic;
+
+/**
+ *
+ * RouterSession.java
+ *
+ * A {@link PerfSession} connected to a Solace message router, with its own
+ * context or on a context shared with other sessions. One message handle and
+ * one receive buffer are reused for every message, so neither the send nor
+ * the receive path allocates once topics have been seen. The send call is a
+ * {@link HotPathTracer} hook.
+ */
+public class RouterSession implements PerfSession {
+
+    private static boolean initialized;
+
+    private final ContextHandle contextHandle;
+    private final boolean ownsContext;
+    private final SessionHandle sessionHandle;
+    private final MessageHandle messageHandle;
+    private final Map<String, Topic> topics = new HashMap<String, Topic>();
+    private ByteBuffer rxBuffer = NativeMemoryBudget.getDefault().allocateDirect("router-session", 4096);
+    private final AtomicLong overBudget = new AtomicLong();
+
+    public RouterSession(String host, String username, String vpnName, String password, Listener listener) {
+        this(host, username, vpnName, password, listener, new SessionEventCallback() {
+            @Override
+            public void onEvent(SessionHandle sessionHandle) {
+                System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
+            }
+        });
+    }
+
+    /**
+     * @param sessionEventCallback
+     *            receives the session events, e.g. a
+     *            {@link SubscriptionManager}
+     */
+    public RouterSession(String host, String username, String vpnName, String password, final Listener listener,
+            SessionEventCallback sessionEventCallback) {
+        this(newContext(), true, host, username, vpnName, password, listener, sessionEventCallback);
+    }
+
+    /**
+     * Creates the session on a context from {@link #newContext()} shared with
+     * other sessions. The listeners of all of them run on the context's
+     * thread. The context is not destroyed by {@link #close()}.
+     */
+    public RouterSession(ContextHandle contextHandle, String host, String username, String vpnName, String password,
+            Listener listener, SessionEventCallback sessionEventCallback) {
+        this(contextHandle, false, host, username, vpnName, password, listener, sessionEventCallback);
+    }
+
+    private RouterSession(ContextHandle contextHandle, boolean ownsContext, String host, String username,
+            String vpnName, String password, final Listener listener, SessionEventCallback sessionEventCallback) {
+        this.contextHandle = contextHandle;
+        this.ownsContext = ownsContext;
+
+        // [Session] -> create the session properties
+        ArrayList<String> sessionProperties = new ArrayList<String>();
+        sessionProperties.add(SessionHandle.PROPERTIES.HOST);
+        sessionProperties.add(host);
+        sessionProperties.add(SessionHandle.PROPERTIES.USERNAME);
+        sessionProperties.add(username);
+        sessionProperties.add(SessionHandle.PROPERTIES.PASSWORD);
+        sessionProperties.add(password);
+        sessionProperties.add(SessionHandle.PROPERTIES.VPN_NAME);
+        sessionProperties.add(vpnName);
+        String[] props = new String[sessionProperties.size()];
+
+        // [Session] -> copy each received attachment into the reused buffer
+        MessageCallback messageCallback = new MessageCallback() {
+            @Override
+            public void onMessage(Handle handle) {
+                try {
+                    MessageHandle rxMessage = ((MessageSupport) handle).getRxMessage();
+                    int size = rxMessage.getBinaryAttachmentSize();
+                    ByteBuffer buffer = NativeMemoryBudget.getDefault().tryEnsureCapacity("router-session", rxBuffer,
+                            size);
+                    if (buffer == null) {
+                        // Never wait for native memory on the context thread
+                        overBudget.incrementAndGet();
+                        return;
+                    }
+                    rxBuffer = buffer;
+                    rxBuffer.clear();
+                    rxMessage.getBinaryAttachment(rxBuffer);
+                    rxBuffer.flip();
+                    Destination destination = rxMessage.getDestination();
+                    listener.onMessage(destination != null ? destination.getName() : null, rxBuffer);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        // [Session] -> create a session handle and the actual session
+        sessionHandle = Solclient.Allocator.newSessionHandle();
+        try {
+            int rc = contextHandle.createSessionForHandle(sessionHandle, sessionProperties.toArray(props),
+                    messageCallback, sessionEventCallback);
+            assertReturnCode("contextHandle.createSession()", rc, SolEnum.ReturnCode.OK);
+
+            rc = sessionHandle.connect();
+            assertReturnCode("sessionHandle.connect()", rc, SolEnum.ReturnCode.OK);
+
+            messageHandle = NativeMemoryBudget.getDefault().newMessageHandle("router-session");
+        } catch (RuntimeException e) {
+            // [Cleanup] -> nothing else owns the session, or our own context
+            // and its thread, if connecting failed
+            try {
+                if (sessionHandle.isBound()) {
+                    sessionHandle.destroy();
+                }
+                if (ownsContext) {
+                    contextHandle.destroy();
+                }
+            } catch (Throwable t) {
+                System.err.println("Unable to clean up after a failed connect " + t);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a context, with its own thread, initializing the API first if
+     * needed.
+     */
+    public static ContextHandle newContext() {
+        init();
+        ContextHandle contextHandle = Solclient.Allocator.newContextHandle();
+        int rc = Solclient.createContextForHandle(contextHandle, new String[0]);
+        assertReturnCode("Solclient.createContextForHandle()", rc, SolEnum.ReturnCode.OK);
+        return contextHandle;
+    }
+
+    /**
+     * Initializes the API once per JVM.
+     */
+    static synchronized void init() {
+        if (!initialized) {
+            int rc = Solclient.init(new String[0]);
+            assertReturnCode("Solclient.init()", rc, SolEnum.ReturnCode.OK);
+            initialized = true;
+        }
+    }
+
+    public SessionHandle getSessionHandle() {
+        return sessionHandle;
+    }
+
+    /**
+     * Returns how many messages were dropped because the native memory
+     * budget could not hold their attachment.
+     */
+    public long getOverBudget() {
+        return overBudget.get();
+    }
+
+    @Override
+    public void subscribe(String topic) {
+        int rc = sessionHandle.subscribe(topicFor(topic), SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+        assertReturnCode("sessionHandle.subscribe()", rc, SolEnum.ReturnCode.OK);
+    }
+
+    @Override
+    public int send(String topic, ByteBuffer payload) {
+        return send(topic, payload, HotPathTracer.sample());
+    }
+
+    @Override
+    public int send(String topic, ByteBuffer payload, long traceId) {
+        messageHandle.setDestination(topicFor(topic));
+        messageHandle.setBinaryAttachment(payload);
+        HotPathTracer.mark(traceId, HotPathTracer.SEND_ENQUEUE);
+        int rc = sessionHandle.send(messageHandle);
+        HotPathTracer.mark(traceId, HotPathTracer.SEND_RETURN);
+        return rc;
+    }
+
+    private Topic topicFor(String name) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            topic = Solclient.Allocator.newTopic(name);
+            topics.put(name, topic);
+        }
+        return topic;
+    }
+
+    @Override
+    public void close() {
+        // [Cleanup] -> free the allocated message
+        try {
+            NativeMemoryBudget.getDefault().destroy(messageHandle);
+        } catch (Throwable t) {
+            System.err.println("Unable to call destroy on messageHandle " + t.getCause());
+        }
+
+        // [Cleanup] -> disconnect session
+        sessionHandle.disconnect();
+        sessionHandle.destroy();
+
+        // [Cleanup] -> destroy the context, unless it is shared
+        if (ownsContext) {
+            contextHandle.destroy();
+        }
+    }
+
+    /**
+     * Helper method to validate return codes.
+     * 
+     * @param operation
+     * @param returnCode
+     * @param rc
+     * @throws IllegalStateException
+     */
+    static void assertReturnCode(String operation, int returnCode, int... rc) throws IllegalStateException {
+        boolean oneRCMatched = false;
+        for (int i = 0; i < rc.length; i++) {
+            if (rc[i] == returnCode) {
+                oneRCMatched = true;
+                break;
+            }
+        }
+        if (!oneRCMatched) {
+            throw new IllegalStateException(String.format("'%s' returned unexpected returnCode %d:%s", operation,
+                    returnCode, SolEnum.ReturnCode.toString(returnCode)));
+        }
+    }
+}
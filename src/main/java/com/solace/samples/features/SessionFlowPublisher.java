@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.solacesystems.solclientj.core.event.MessageCallback;
+import com.solacesystems.solclientj.core.handle.Handle;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.MessageSupport;
+import com.solacesystems.solclientj.core.resource.Destination;
+
+/**
+ *
+ * SessionFlowPublisher.java
+ *
+ * A {@link Flow.Publisher} fed from the session's {@link MessageCallback}.
+ * Received messages are copied into a bounded buffer and handed to the
+ * subscriber only as fast as it requests them.
+ *
+ * <p>
+ * Direct messages cannot be pushed back to the router, so when the buffer is
+ * full further messages are dropped and counted. An optional
+ * {@link FlowControl} is stopped when the buffer reaches its high watermark
+ * and started again once it drains below its low watermark; wire it to a
+ * guaranteed message flow's <code>stop()</code>/<code>start()</code> to turn
+ * downstream demand into router-side back-pressure instead of loss.
+ *
+ * <p>
+ * The buffer is a single-producer ring: {@link #onMessage(Handle)} and
+ * {@link #offer(TopicMessage)} must only be called from the context thread
+ * (or a single other thread). Messages are delivered on whichever thread
+ * signals new work, either the producer or the thread calling
+ * <code>request(n)</code>, one at a time.
+ */
+public class SessionFlowPublisher implements Flow.Publisher<TopicMessage>, MessageCallback {
+
+    /**
+     * Start/stop hook invoked as the buffer fills and drains.
+     */
+    public interface FlowControl {
+        void stop();
+
+        void start();
+    }
+
+    private final TopicMessage[] ring;
+    private final int mask;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final FlowControl flowControl;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicReference<Flow.Subscriber<? super TopicMessage>> subscriber = new AtomicReference<Flow.Subscriber<? super TopicMessage>>();
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    // Signalled from drain(), so it is serialized with onNext (rule 1.3)
+    private volatile Throwable error;
+    // Only used on the context thread
+    private ByteBuffer rxBuffer;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            buffer size, rounded up to a power of two
+     */
+    public SessionFlowPublisher(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity
+     *            buffer size, rounded up to a power of two
+     * @param flowControl
+     *            stopped at 3/4 of capacity and started again at 1/4, may be
+     *            null
+     */
+    public SessionFlowPublisher(int capacity, FlowControl flowControl) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new TopicMessage[size];
+        this.mask = size - 1;
+        this.highWatermark = Math.max(1, size - size / 4);
+        this.lowWatermark = size / 4;
+        this.flowControl = flowControl;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TopicMessage> s) {
+        if (s == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscriber.compareAndSet(null, s)) {
+            s.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("SessionFlowPublisher supports a single subscriber"));
+            return;
+        }
+        s.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    if (error == null) {
+                        error = new IllegalArgumentException("request must be positive: " + n);
+                    }
+                    drain();
+                    return;
+                }
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!requested.compareAndSet(current, next));
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onMessage(Handle handle) {
+        MessageHandle rxMessage = ((MessageSupport) handle).getRxMessage();
+
+        Destination destination = rxMessage.getDestination();
+        ByteBuffer buffer = NativeMemoryBudget.getDefault().tryEnsureCapacity("flow-publisher", rxBuffer,
+                rxMessage.getBinaryAttachmentSize());
+        if (buffer == null) {
+            // Never wait for native memory on the context thread
+            dropped.incrementAndGet();
+            return;
+        }
+        rxBuffer = buffer;
+        rxBuffer.clear();
+        rxMessage.getBinaryAttachment(rxBuffer);
+        rxBuffer.flip();
+        byte[] payload = new byte[rxBuffer.remaining()];
+        rxBuffer.get(payload);
+
+        offer(new TopicMessage(destination != null ? destination.getName() : null, payload));
+    }
+
+    /**
+     * Buffers a message for the subscriber.
+     *
+     * @return false if the buffer is full and the message was dropped
+     */
+    public boolean offer(TopicMessage message) {
+        received.incrementAndGet();
+        long producer = producerIndex.get();
+        long size = producer - consumerIndex.get();
+        if (size >= ring.length) {
+            dropped.incrementAndGet();
+            drain();
+            return false;
+        }
+        ring[(int) producer & mask] = message;
+        producerIndex.lazySet(producer + 1);
+        if (size + 1 >= highWatermark && flowControl != null && stopped.compareAndSet(false, true)) {
+            flowControl.stop();
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Signals <code>onComplete</code> once the buffered messages have been
+     * delivered, e.g. when the session is being shut down.
+     */
+    public void complete() {
+        done = true;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super TopicMessage> s = subscriber.get();
+            if (s != null && !cancelled && error != null) {
+                // Rule 3.9: a non-positive request ends the subscription
+                cancelled = true;
+                s.onError(error);
+            } else if (s != null && !cancelled) {
+                long consumer = consumerIndex.get();
+                long available = producerIndex.get() - consumer;
+                long demand = requested.get();
+                long emitted = 0;
+                while (emitted < available && emitted < demand && !cancelled && error == null) {
+                    int slot = (int) (consumer + emitted) & mask;
+                    TopicMessage message = ring[slot];
+                    ring[slot] = null;
+                    emitted++;
+                    consumerIndex.lazySet(consumer + emitted);
+                    s.onNext(message);
+                }
+                if (emitted > 0) {
+                    delivered.addAndGet(emitted);
+                    if (demand != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    }
+                }
+                if (flowControl != null && stopped.get() && producerIndex.get() - consumerIndex.get() <= lowWatermark
+                        && stopped.compareAndSet(true, false)) {
+                    flowControl.start();
+                }
+                if (done && producerIndex.get() == consumerIndex.get() && !cancelled) {
+                    cancelled = true;
+                    s.onComplete();
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    public int getBuffered() {
+        return (int) (producerIndex.get() - consumerIndex.get());
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+import com.solacesystems.solclientj.core.resource.Topic;
+
+/**
+ *
+ * SessionFlowSubscriber.java
+ *
+ * A {@link Flow.Subscriber} that publishes every {@link TopicMessage} it
+ * receives as a direct message with <code>sessionHandle.send</code>.
+ *
+ * <p>
+ * Demand is requested in batches: <code>batchSize</code> up front and topped
+ * up once half of it has been sent, so the upstream never runs more than one
+ * batch ahead of the session. A single message handle and direct buffer are
+ * reused for every send, and topics are cached by name.
+ *
+ * <p>
+ * When the transmit window is full the message is kept, along with any that
+ * arrive behind it, and no more demand is requested. Call
+ * {@link #onCanSend()} from the session event callback on
+ * <code>CAN_SEND</code> to send them and top up demand again.
+ */
+public class SessionFlowSubscriber implements Flow.Subscriber<TopicMessage> {
+
+    private final SessionHandle sessionHandle;
+    private final int batchSize;
+    private final Map<String, Topic> topics = new HashMap<String, Topic>();
+    // Messages refused with WOULD_BLOCK, oldest first, at most one batch
+    private final ArrayDeque<TopicMessage> pending = new ArrayDeque<TopicMessage>();
+    private final CountDownLatch doneLatch = new CountDownLatch(1);
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private Flow.Subscription subscription;
+    private MessageHandle messageHandle;
+    private ByteBuffer content;
+    private long outstanding;
+    private boolean closed;
+    private volatile Throwable error;
+
+    public SessionFlowSubscriber(SessionHandle sessionHandle, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.sessionHandle = sessionHandle;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null || closed) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        try {
+            messageHandle = NativeMemoryBudget.getDefault().newMessageHandle("flow-subscriber");
+            content = NativeMemoryBudget.getDefault().allocateDirect("flow-subscriber", 4096);
+        } catch (IllegalStateException e) {
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+        outstanding = batchSize;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public synchronized void onNext(TopicMessage message) {
+        if (closed) {
+            return;
+        }
+        outstanding--;
+        // Keep order behind a message still waiting for CAN_SEND
+        if (!pending.isEmpty() || !send(message)) {
+            pending.add(message);
+            return;
+        }
+        requestMore();
+    }
+
+    /**
+     * Sends the messages kept back by a full transmit window, then tops up
+     * demand once they are all sent. Call it from the session event callback
+     * on <code>CAN_SEND</code>.
+     */
+    public synchronized void onCanSend() {
+        if (closed) {
+            return;
+        }
+        while (!pending.isEmpty()) {
+            if (!send(pending.peek())) {
+                return;
+            }
+            pending.poll();
+        }
+        requestMore();
+    }
+
+    /**
+     * @return false if the transmit window is full and the message was not
+     *         taken
+     */
+    private boolean send(TopicMessage message) {
+        Topic topic = topics.get(message.getTopic());
+        if (topic == null) {
+            topic = Solclient.Allocator.newTopic(message.getTopic());
+            topics.put(message.getTopic(), topic);
+        }
+        byte[] payload = message.getPayload();
+        // onCanSend runs on the context thread, so never wait for memory here
+        ByteBuffer buffer = NativeMemoryBudget.getDefault().tryEnsureCapacity("flow-subscriber", content,
+                payload.length);
+        if (buffer == null) {
+            failed.incrementAndGet();
+            return true;
+        }
+        content = buffer;
+        content.clear();
+        content.put(payload);
+        content.flip();
+
+        messageHandle.setDestination(topic);
+        messageHandle.setBinaryAttachment(content);
+        long traceId = HotPathTracer.sample();
+        HotPathTracer.mark(traceId, HotPathTracer.SEND_ENQUEUE);
+        int rc = sessionHandle.send(messageHandle);
+        HotPathTracer.mark(traceId, HotPathTracer.SEND_RETURN);
+        if (rc == SolEnum.ReturnCode.WOULD_BLOCK) {
+            return false;
+        }
+        if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+            sent.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        return true;
+    }
+
+    private void requestMore() {
+        if (subscription != null && outstanding <= batchSize / 2) {
+            long n = batchSize - outstanding;
+            outstanding = batchSize;
+            subscription.request(n);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        doneLatch.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        doneLatch.countDown();
+    }
+
+    /**
+     * Waits for the upstream to complete or fail.
+     *
+     * @return true if the upstream terminated within the timeout
+     */
+    public boolean awaitDone(long timeout, TimeUnit unit) throws InterruptedException {
+        return doneLatch.await(timeout, unit);
+    }
+
+    /**
+     * Cancels the upstream and frees the message handle and buffer. Messages
+     * still waiting for <code>CAN_SEND</code> are discarded, and any that
+     * arrive afterwards are ignored.
+     */
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        // Released from the budget once collected
+        content = null;
+        if (messageHandle != null) {
+            try {
+                NativeMemoryBudget.getDefault().destroy(messageHandle);
+            } catch (Throwable t) {
+                System.err.println("Unable to call destroy on messageHandle " + t.getCause());
+            }
+            messageHandle = null;
+        }
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns how many messages are waiting for <code>CAN_SEND</code>.
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+}
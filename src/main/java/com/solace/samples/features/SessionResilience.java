@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.event.SessionEventCallback;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+import com.solacesystems.solclientj.core.resource.Topic;
+
+/**
+ *
+ * SessionResilience.java
+ *
+ * Keeps an application working across session outages. Use it as, or in
+ * front of, the session event callback:
+ *
+ * <ul>
+ * <li>Subscriptions made through {@link #getSubscriptions()} are replayed in
+ * bulk once the session reconnects. A full transmit window pauses the replay
+ * until CAN_SEND.
+ * <li>{@link #publish(String, ByteBuffer)} buffers messages in an
+ * {@link OffHeapMessageBuffer} while the session is down, and sends them in
+ * order once it is back, before any new message.
+ * <li>Every outage is timed: down to reconnected, and down to fully
+ * recovered (subscriptions replayed and buffer flushed).
+ * </ul>
+ *
+ * <p>
+ * Recovery runs on its own thread because it makes blocking calls that must
+ * not be made from the context thread. Add the properties from
+ * {@link #addReconnectProperties(List, int, int)} to the session so the API
+ * keeps retrying the connection and leaves subscriptions to this class.
+ */
+public class SessionResilience implements SessionEventCallback {
+
+    private final SessionEventCallback delegate;
+    private final SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+    private final OffHeapMessageBuffer buffer;
+    private final Map<String, Topic> topics = new HashMap<String, Topic>();
+    private final ExecutorService recoveryExecutor;
+
+    private SessionHandle sessionHandle;
+    private MessageHandle messageHandle;
+    private ByteBuffer scratch = NativeMemoryBudget.getDefault().allocateDirect("session-resilience", 4096);
+    private volatile boolean up;
+    private volatile long downSinceNanos;
+    // Only used on the recovery thread, set while a replay waits for CAN_SEND
+    private SubscriptionRegistry.Replay replay;
+    private long recoveringSinceNanos;
+    // Set from reconnect until the buffer first empties afterwards
+    private boolean recovering;
+
+    private final AtomicLong outages = new AtomicLong();
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastReconnectNanos;
+    private volatile long lastRecoveryNanos;
+
+    /**
+     * @param bufferBytes
+     *            off-heap space for messages published while the session is
+     *            down
+     * @param delegate
+     *            receives every session event after this class, may be null
+     */
+    public SessionResilience(int bufferBytes, SessionEventCallback delegate) {
+        this.buffer = new OffHeapMessageBuffer(bufferBytes);
+        this.delegate = delegate;
+        this.recoveryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "session-recovery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds session properties so the API retries the connection
+     * indefinitely and does not re-apply subscriptions itself.
+     */
+    public static void addReconnectProperties(List<String> sessionProperties, int reconnectRetries,
+            int reconnectRetryWaitMs) {
+        sessionProperties.add(SessionHandle.PROPERTIES.RECONNECT_RETRIES);
+        sessionProperties.add(Integer.toString(reconnectRetries));
+        sessionProperties.add(SessionHandle.PROPERTIES.RECONNECT_RETRY_WAIT_MS);
+        sessionProperties.add(Integer.toString(reconnectRetryWaitMs));
+        sessionProperties.add(SessionHandle.PROPERTIES.REAPPLY_SUBSCRIPTIONS);
+        sessionProperties.add("0");
+    }
+
+    /**
+     * Binds to the connected session and allocates the message used to
+     * publish.
+     */
+    public synchronized void attach(SessionHandle sessionHandle) {
+        this.sessionHandle = sessionHandle;
+        messageHandle = NativeMemoryBudget.getDefault().newMessageHandle("session-resilience");
+        up = true;
+    }
+
+    public SubscriptionRegistry getSubscriptions() {
+        return subscriptions;
+    }
+
+    @Override
+    public void onEvent(SessionHandle sessionHandle) {
+        int code = sessionHandle.getSessionEvent().getSessionEventCode();
+        if (code == SolEnum.SessionEventCode.DOWN_ERROR || code == SolEnum.SessionEventCode.RECONNECTING_NOTICE) {
+            if (up) {
+                up = false;
+                downSinceNanos = System.nanoTime();
+                outages.incrementAndGet();
+            }
+        } else if (code == SolEnum.SessionEventCode.RECONNECTED_NOTICE || code == SolEnum.SessionEventCode.UP_NOTICE) {
+            if (!up && downSinceNanos != 0) {
+                lastReconnectNanos = System.nanoTime() - downSinceNanos;
+                up = true;
+                submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        recover();
+                    }
+                });
+            }
+        } else if (code == SolEnum.SessionEventCode.CAN_SEND) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (replay != null) {
+                        resumeRecovery();
+                    } else {
+                        flush();
+                    }
+                }
+            });
+        }
+        if (delegate != null) {
+            delegate.onEvent(sessionHandle);
+        }
+    }
+
+    /**
+     * Sends a direct message, or buffers it if the session is down, cannot
+     * take it right now, or still has buffered messages to send first.
+     *
+     * @return false if the message was dropped because the buffer is full
+     */
+    public synchronized boolean publish(String topic, ByteBuffer payload) {
+        if (up && buffer.size() == 0) {
+            int rc = send(topic, payload);
+            if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+                return true;
+            }
+        }
+        if (!buffer.offer(topic, payload)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        buffered.incrementAndGet();
+        return true;
+    }
+
+    private void recover() {
+        recoveringSinceNanos = downSinceNanos;
+        recovering = true;
+        replay = subscriptions.newReplay();
+        resumeRecovery();
+    }
+
+    /**
+     * Carries on replaying subscriptions, then flushes the buffer once they
+     * are all sent.
+     */
+    private void resumeRecovery() {
+        try {
+            if (!replay.resume(sessionHandle)) {
+                return; // WOULD_BLOCK, resumes on CAN_SEND
+            }
+        } catch (IllegalStateException e) {
+            // The session went down again, the next reconnect replays
+            replay = null;
+            System.err.println(" Subscription replay failed: " + e.getMessage());
+            return;
+        }
+        int replayed = replay.getReplayed();
+        replay = null;
+        int flushed = flush();
+        System.out.println(String.format(" Session reconnected in %dms, replayed %d subscriptions in %dms,"
+                + " flushed %d buffered messages, %d left for CAN_SEND", toMillis(lastReconnectNanos), replayed,
+                toMillis(System.nanoTime() - recoveringSinceNanos), flushed, getBufferedNow()));
+    }
+
+    /**
+     * Sends buffered messages in order until the buffer is empty or the
+     * session stops taking them. The first time the buffer empties after
+     * subscriptions are replayed, recovery is complete and is timed.
+     *
+     * @return the number of messages sent
+     */
+    private synchronized int flush() {
+        int flushed = 0;
+        while (up && buffer.size() > 0) {
+            int size = buffer.peekPayloadSize();
+            scratch = NativeMemoryBudget.getDefault().ensureCapacity("session-resilience", scratch, size);
+            String topic = buffer.peek(scratch);
+            int rc = send(topic, scratch);
+            if (rc != SolEnum.ReturnCode.OK && rc != SolEnum.ReturnCode.IN_PROGRESS) {
+                // WOULD_BLOCK resumes on CAN_SEND, anything else on reconnect
+                break;
+            }
+            buffer.remove();
+            flushed++;
+        }
+        if (recovering && replay == null && buffer.size() == 0) {
+            recovering = false;
+            lastRecoveryNanos = System.nanoTime() - recoveringSinceNanos;
+            System.out.println(" Session recovered in " + toMillis(lastRecoveryNanos) + "ms");
+        }
+        return flushed;
+    }
+
+    private int send(String name, ByteBuffer payload) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            topic = Solclient.Allocator.newTopic(name);
+            topics.put(name, topic);
+        }
+        messageHandle.setDestination(topic);
+        messageHandle.setBinaryAttachment(payload);
+        return sessionHandle.send(messageHandle);
+    }
+
+    private void submit(Runnable task) {
+        try {
+            recoveryExecutor.execute(task);
+        } catch (RuntimeException e) {
+            // Closed
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Stops recovery and frees the message. Messages still buffered are
+     * discarded; check {@link #getBufferedNow()} first to drain them.
+     */
+    public synchronized void close() {
+        recoveryExecutor.shutdownNow();
+        if (messageHandle != null) {
+            try {
+                NativeMemoryBudget.getDefault().destroy(messageHandle);
+            } catch (Throwable t) {
+                System.err.println("Unable to call destroy on messageHandle " + t.getCause());
+            }
+            messageHandle = null;
+        }
+    }
+
+    public boolean isUp() {
+        return up;
+    }
+
+    public long getOutages() {
+        return outages.get();
+    }
+
+    /**
+     * @return messages buffered because the session could not take them
+     */
+    public long getBuffered() {
+        return buffered.get();
+    }
+
+    public synchronized int getBufferedNow() {
+        return buffer.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return time from the last outage until the session reconnected
+     */
+    public long getLastReconnectMillis() {
+        return toMillis(lastReconnectNanos);
+    }
+
+    /**
+     * @return time from the last outage until subscriptions were replayed
+     *         and buffered messages were sent
+     */
+    public long getLastRecoveryMillis() {
+        return toMillis(lastRecoveryNanos);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * StartupProbe.java
+ *
+ * Starts up the way a subscriber replica would at deploy time and reports
+ * time-to-ready, time-to-first-message and time-to-steady-state. The
+ * {@link ReadyPhase} connects the session while the {@link HotPathWarmer}
+ * warms the receive path on the loopback stand-in, then adds the
+ * subscriptions, also in parallel with warm-up, and finally sends itself a
+ * message.
+ *
+ * <p>
+ * It also serves as the training run for the class-data-sharing archive
+ * built by <code>./gradlew cdsArchive</code>.
+ */
+public class StartupProbe {
+
+    private static final String USAGE = "Usage: StartupProbe <loopback | host:port> [client-username@message-vpn client-password]"
+            + " [topics=100] [warmup=10]";
+
+    public static void main(String[] args) throws Exception {
+        final PerfSweep.Target target = PerfSweep.Target.parse(args, USAGE);
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("topics", "100");
+        options.put("warmup", "10");
+        PerfSweep.parseOptions(args, target.optionsStart, options, USAGE);
+        final int topics = Integer.parseInt(options.get("topics"));
+        final int warmupSeconds = Integer.parseInt(options.get("warmup"));
+
+        final ReadyPhase readyPhase = new ReadyPhase();
+        final LatencyHistogram latency = new LatencyHistogram();
+        // The application's receive path, shared by warm-up and real traffic
+        final PerfSession.Listener listener = new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+                long sentAt = payload.getLong(payload.position());
+                synchronized (latency) {
+                    latency.record(System.nanoTime() - sentAt);
+                }
+                if (!topic.startsWith(HotPathWarmer.WARMUP_TOPIC_PREFIX)) {
+                    readyPhase.onMessage();
+                }
+            }
+        };
+        final LoopbackRouter router = target.loopback ? new LoopbackRouter() : null;
+        final HotPathWarmer warmer = new HotPathWarmer();
+
+        System.out.println("StartupProbe against " + target.getName() + ": " + options);
+        Future<PerfSession> connect = readyPhase.start("connect", new Callable<PerfSession>() {
+            @Override
+            public PerfSession call() {
+                return target.open(router, listener);
+            }
+        });
+        Future<Boolean> warmup = readyPhase.start("warm-up", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return warmer.warm(listener, 100, warmupSeconds, TimeUnit.SECONDS);
+            }
+        });
+        final PerfSession session = readyPhase.await(connect);
+        Future<Integer> subscribe = readyPhase.start("subscribe", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                for (int i = 0; i < topics; i++) {
+                    session.subscribe("probe/" + i);
+                }
+                return topics;
+            }
+        });
+        readyPhase.await(subscribe);
+        boolean settled = readyPhase.await(warmup);
+        readyPhase.ready();
+
+        ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("startup-probe", 100);
+        payload.putLong(0, System.nanoTime());
+        session.send("probe/0", payload);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (readyPhase.getFirstMessageUptime() < 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        readyPhase.awaitSteadyState(30, TimeUnit.SECONDS);
+
+        System.out.println(String.format(" Warm-up: %d messages, %dms of JIT compilation, %s", warmer.getMessages(),
+                warmer.getCompileMillis(), settled ? "settled" : "stopped at time limit"));
+        readyPhase.report();
+        session.close();
+        readyPhase.shutdown();
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.event.SessionEventCallback;
+import com.solacesystems.solclientj.core.handle.ContextHandle;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+
+/**
+ *
+ * SubscriberLoad.java
+ *
+ * Runs many subscriber sessions in one JVM, spread over several contexts,
+ * and reports their merged throughput and latency every second. Session
+ * <code>s</code> subscribes to <code>topics-per-session</code> consecutive
+ * topics <code>prefix/N</code> starting at topic
+ * <code>s * topics-per-session</code>, wrapping at <code>topics</code>, so
+ * fewer topics than sessions times topics-per-session means that messages
+ * fan out to several sessions.
+ *
+ * <p>
+ * Messages can come from any publisher to <code>prefix/N</code>, such as
+ * <code>FanOutPublisher</code> with <code>distribution=uniform</code>. With
+ * <code>rate</code> above 0 the tool also publishes itself, uniformly over
+ * the topics, and puts a timestamp in each message so that latency can be
+ * measured; latency is only reported for these messages. The loopback
+ * stand-in gives every session its own context thread, so
+ * <code>contexts</code> only applies to a router.
+ *
+ * <p>
+ * Each session counts on its own context thread, with no locks: message
+ * counts are single-writer atomics, and latency goes into a histogram per
+ * second that is handed to the reporting thread once the second is over.
+ */
+public class SubscriberLoad {
+
+    private static final String USAGE = "Usage: SubscriberLoad <loopback | host:port> [client-username@message-vpn client-password]"
+            + " [sessions=8] [contexts=4] [topics=100] [topics-per-session=10] [prefix=load] [rate=0] [payload=100]"
+            + " [duration=30]";
+
+    /**
+     * Latency recorded by one session during one second of the run.
+     */
+    private static class Interval {
+        final int second;
+        final LatencyHistogram latency;
+
+        Interval(int second, LatencyHistogram latency) {
+            this.second = second;
+            this.latency = latency;
+        }
+    }
+
+    /**
+     * The receive side of one session. Only the context thread writes.
+     */
+    private static class SessionStats implements PerfSession.Listener {
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final ConcurrentLinkedQueue<Interval> completed;
+        final long startNanos;
+        final boolean timestamped;
+        LatencyHistogram current = new LatencyHistogram();
+        int currentSecond;
+
+        SessionStats(ConcurrentLinkedQueue<Interval> completed, long startNanos, boolean timestamped) {
+            this.completed = completed;
+            this.startNanos = startNanos;
+            this.timestamped = timestamped;
+        }
+
+        @Override
+        public void onMessage(String topic, ByteBuffer payload) {
+            // lazySet: this thread is the only writer
+            received.lazySet(received.get() + 1);
+            bytes.lazySet(bytes.get() + payload.remaining());
+            if (timestamped && payload.remaining() >= 8) {
+                long now = System.nanoTime();
+                int second = (int) ((now - startNanos) / 1000000000L);
+                if (second != currentSecond) {
+                    if (current.getCount() > 0) {
+                        completed.offer(new Interval(currentSecond, current));
+                        current = new LatencyHistogram();
+                    }
+                    currentSecond = second;
+                }
+                current.record(now - payload.getLong(payload.position()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PerfSweep.Target target = PerfSweep.Target.parse(args, USAGE);
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("sessions", "8");
+        options.put("contexts", "4");
+        options.put("topics", "100");
+        options.put("topics-per-session", "10");
+        options.put("prefix", "load");
+        options.put("rate", "0");
+        options.put("payload", "100");
+        options.put("duration", "30");
+        PerfSweep.parseOptions(args, target.optionsStart, options, USAGE);
+        int sessionCount = Integer.parseInt(options.get("sessions"));
+        int contextCount = Math.max(1, Math.min(sessionCount, Integer.parseInt(options.get("contexts"))));
+        final int topics = Integer.parseInt(options.get("topics"));
+        int topicsPerSession = Integer.parseInt(options.get("topics-per-session"));
+        final String prefix = options.get("prefix");
+        final int rate = Integer.parseInt(options.get("rate"));
+        final int payloadSize = Math.max(8, Integer.parseInt(options.get("payload")));
+        int duration = Integer.parseInt(options.get("duration"));
+
+        System.out.println("SubscriberLoad against " + target.getName() + ": " + options);
+        long startNanos = System.nanoTime();
+        ConcurrentLinkedQueue<Interval> completed = new ConcurrentLinkedQueue<Interval>();
+        LoopbackRouter router = target.loopback ? new LoopbackRouter() : null;
+        List<ContextHandle> contexts = new ArrayList<ContextHandle>();
+        if (!target.loopback) {
+            for (int i = 0; i < contextCount; i++) {
+                contexts.add(RouterSession.newContext());
+            }
+        }
+        SessionEventCallback sessionEventCallback = new SessionEventCallback() {
+            @Override
+            public void onEvent(SessionHandle sessionHandle) {
+                int code = sessionHandle.getSessionEvent().getSessionEventCode();
+                if (code != SolEnum.SessionEventCode.UP_NOTICE && code != SolEnum.SessionEventCode.CAN_SEND) {
+                    System.out.println(" Received SessionEvent:" + sessionHandle.getSessionEvent());
+                }
+            }
+        };
+
+        List<SessionStats> stats = new ArrayList<SessionStats>();
+        List<PerfSession> sessions = new ArrayList<PerfSession>();
+        for (int s = 0; s < sessionCount; s++) {
+            SessionStats sessionStats = new SessionStats(completed, startNanos, rate > 0);
+            PerfSession session = target.loopback ? router.newSession(sessionStats)
+                    : new RouterSession(contexts.get(s % contextCount), target.host, target.username,
+                            target.vpnName, target.password, sessionStats, sessionEventCallback);
+            for (int i = 0; i < topicsPerSession; i++) {
+                session.subscribe(prefix + "/" + (s * topicsPerSession + i) % topics);
+            }
+            stats.add(sessionStats);
+            sessions.add(session);
+        }
+        System.out.println(" " + sessionCount + " sessions subscribed"
+                + (target.loopback ? "" : " on " + contextCount + " contexts"));
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong published = new AtomicLong();
+        Thread publisherThread = null;
+        if (rate > 0) {
+            final PerfSession publisher = target.loopback ? router.newSession(new SessionStats(completed, startNanos,
+                    false)) : sessions.get(0);
+            if (target.loopback) {
+                sessions.add(publisher);
+            }
+            publisherThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("subscriber-load",
+                            payloadSize);
+                    long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+                    long next = System.nanoTime();
+                    int topic = 0;
+                    while (!stop.get()) {
+                        payload.clear();
+                        payload.putLong(0, System.nanoTime());
+                        int rc = publisher.send(prefix + "/" + topic, payload);
+                        if (rc == SolEnum.ReturnCode.OK || rc == SolEnum.ReturnCode.IN_PROGRESS) {
+                            published.lazySet(published.get() + 1);
+                        }
+                        topic = topic + 1 == topics ? 0 : topic + 1;
+                        next += intervalNanos;
+                        PerfSweep.pace(next);
+                    }
+                }
+            }, "subscriber-load-publisher");
+            publisherThread.start();
+        }
+
+        long[] lastReceived = new long[sessionCount];
+        long lastPublished = 0;
+        long lastBytes = 0;
+        LatencyHistogram total = new LatencyHistogram();
+        List<Interval> waiting = new ArrayList<Interval>();
+        for (int second = 1; second <= duration; second++) {
+            long wakeUp = startNanos + TimeUnit.SECONDS.toNanos(second);
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, wakeUp - System.nanoTime()));
+
+            long received = 0;
+            long bytes = 0;
+            long slowest = Long.MAX_VALUE;
+            long fastest = 0;
+            for (int s = 0; s < sessionCount; s++) {
+                long sessionReceived = stats.get(s).received.get();
+                long delta = sessionReceived - lastReceived[s];
+                lastReceived[s] = sessionReceived;
+                received += delta;
+                bytes += stats.get(s).bytes.get();
+                slowest = Math.min(slowest, delta);
+                fastest = Math.max(fastest, delta);
+            }
+            long publishedNow = published.get();
+            String line = String.format(" %3ds received %8d msgs/s %7.1f MB/s per session min=%d max=%d", second,
+                    received, (bytes - lastBytes) / 1e6, slowest, fastest);
+            lastBytes = bytes;
+            if (rate > 0) {
+                line += String.format(" published %d msgs/s", publishedNow - lastPublished);
+                lastPublished = publishedNow;
+                line += latency(second - 1, completed, waiting, total);
+            }
+            System.out.println(line);
+        }
+
+        stop.set(true);
+        if (publisherThread != null) {
+            publisherThread.join();
+        }
+        TimeUnit.MILLISECONDS.sleep(500);
+        for (PerfSession session : sessions) {
+            session.close();
+        }
+        for (ContextHandle context : contexts) {
+            context.destroy();
+        }
+
+        long totalReceived = 0;
+        for (int s = 0; s < sessionCount; s++) {
+            totalReceived += stats.get(s).received.get();
+        }
+        System.out.println(String.format(" Total: received=%d (%.0f msgs/s over %d sessions)", totalReceived,
+                totalReceived / (double) duration, sessionCount));
+        if (rate > 0) {
+            // The context threads have stopped, hand over their last second
+            for (SessionStats sessionStats : stats) {
+                completed.offer(new Interval(sessionStats.currentSecond, sessionStats.current));
+            }
+            latency(Integer.MAX_VALUE, completed, waiting, total);
+            System.out.println(String.format(" Total: published=%d latency p50=%.1fus p99=%.1fus p99.9=%.1fus"
+                    + " max=%.1fus", published.get(), total.getValueAtPercentile(50) / 1e3,
+                    total.getValueAtPercentile(99) / 1e3, total.getValueAtPercentile(99.9) / 1e3,
+                    total.getMax() / 1e3));
+        }
+    }
+
+    /**
+     * Merges the latency of every session for the seconds before
+     * <code>second</code> into <code>total</code>. A session hands over a
+     * second's histogram with its first message of a later second, so each
+     * report prints the latency of the second before.
+     *
+     * @return the merged latency for printing
+     */
+    private static String latency(int second, ConcurrentLinkedQueue<Interval> completed, List<Interval> waiting,
+            LatencyHistogram total) {
+        Interval interval;
+        while ((interval = completed.poll()) != null) {
+            waiting.add(interval);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        for (int i = waiting.size() - 1; i >= 0; i--) {
+            if (waiting.get(i).second < second) {
+                merged.add(waiting.get(i).latency);
+                waiting.remove(i);
+            }
+        }
+        total.add(merged);
+        if (merged.getCount() == 0) {
+            return "";
+        }
+        return String.format(" previous second latency p50=%.1fus p99=%.1fus max=%.1fus", merged.getValueAtPercentile(50) / 1e3,
+                merged.getValueAtPercentile(99) / 1e3, merged.getMax() / 1e3);
+    }
+}
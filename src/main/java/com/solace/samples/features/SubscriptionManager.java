@@ -0,0 +1,331 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.event.SessionEvent;
+import com.solacesystems.solclientj.core.event.SessionEventCallback;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+import com.solacesystems.solclientj.core.resource.Topic;
+
+/**
+ *
+ * SubscriptionManager.java
+ *
+ * Adds and removes large numbers of topic subscriptions without waiting a
+ * full round trip for each one. Requests are sent with
+ * <code>REQUEST_CONFIRM</code> and a unique correlation tag, up to a window
+ * of unconfirmed requests, and the SUBSCRIPTION_OK and SUBSCRIPTION_ERROR
+ * session events are matched back to their request through the tag.
+ *
+ * <p>
+ * Before sending, subscriptions already covered by a wildcard in the same
+ * batch or already in place are dropped, e.g. <code>a/b</code> and
+ * <code>a/*&#47;c</code> under <code>a/&gt;</code>. They are remembered, and
+ * subscribed on the router when the last wildcard covering them is
+ * unsubscribed, so the application keeps receiving them.
+ *
+ * <p>
+ * Use it as, or in front of, the session event callback. Call
+ * {@link #subscribeAll(Collection)} and {@link #unsubscribeAll(Collection)}
+ * from an application thread, never from the context thread, which has to
+ * deliver the confirms.
+ */
+public class SubscriptionManager implements SessionEventCallback {
+
+    private final SessionEventCallback delegate;
+    private final int window;
+    private final Semaphore outstanding;
+    private final Semaphore canSend = new Semaphore(0);
+    private final AtomicInteger nextTag = new AtomicInteger(1);
+    private final Map<Integer, Request> pending = new ConcurrentHashMap<Integer, Request>();
+    private final Set<String> active = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Requested but not sent because a wildcard already covers them
+    private final Set<String> covered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, String> errors = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    private SessionHandle sessionHandle;
+
+    private static final class Request {
+        final String topic;
+        final boolean subscribe;
+
+        Request(String topic, boolean subscribe) {
+            this.topic = topic;
+            this.subscribe = subscribe;
+        }
+    }
+
+    /**
+     * @param window
+     *            maximum number of unconfirmed requests
+     * @param delegate
+     *            receives every session event after this class, may be null
+     */
+    public SubscriptionManager(int window, SessionEventCallback delegate) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.window = window;
+        this.outstanding = new Semaphore(window);
+        this.delegate = delegate;
+    }
+
+    public void attach(SessionHandle sessionHandle) {
+        this.sessionHandle = sessionHandle;
+    }
+
+    @Override
+    public void onEvent(SessionHandle sessionHandle) {
+        SessionEvent event = sessionHandle.getSessionEvent();
+        int code = event.getSessionEventCode();
+        if (code == SolEnum.SessionEventCode.SUBSCRIPTION_OK || code == SolEnum.SessionEventCode.SUBSCRIPTION_ERROR) {
+            Request request = pending.remove(event.getCorrelationKey());
+            if (request != null) {
+                if (code == SolEnum.SessionEventCode.SUBSCRIPTION_OK) {
+                    confirmed.incrementAndGet();
+                    if (request.subscribe) {
+                        active.add(request.topic);
+                    }
+                } else {
+                    failed.incrementAndGet();
+                    active.remove(request.topic);
+                    errors.put(request.topic, event.getInfo());
+                }
+                outstanding.release();
+                // Our own confirms are not passed on, there can be many
+                return;
+            }
+        } else if (code == SolEnum.SessionEventCode.CAN_SEND) {
+            canSend.release();
+        }
+        if (delegate != null) {
+            delegate.onEvent(sessionHandle);
+        }
+    }
+
+    /**
+     * Sends subscribe requests for every topic not already covered,
+     * returning once they are all sent. Use
+     * {@link #awaitConfirms(long, TimeUnit)} to wait for the router.
+     *
+     * @return the number of subscribe requests sent
+     */
+    public int subscribeAll(Collection<String> topics) throws InterruptedException {
+        List<String> requested = deduplicate(topics);
+        for (String topic : requested) {
+            request(topic, true);
+        }
+        return requested.size();
+    }
+
+    /**
+     * Sends unsubscribe requests for every topic, returning once they are
+     * all sent. Covered topics left without a covering wildcard are
+     * subscribed first, so they are not lost.
+     *
+     * @return the number of unsubscribe requests sent
+     */
+    public int unsubscribeAll(Collection<String> topics) throws InterruptedException {
+        Set<String> removed = new LinkedHashSet<String>(topics);
+        covered.removeAll(removed);
+        List<String> remaining = new ArrayList<String>();
+        for (String topic : active) {
+            if (generality(topic) > 0 && !removed.contains(topic)) {
+                remaining.add(topic);
+            }
+        }
+        for (String topic : new ArrayList<String>(covered)) {
+            boolean stillCovered = false;
+            for (int i = 0; i < remaining.size() && !stillCovered; i++) {
+                stillCovered = covers(remaining.get(i), topic);
+            }
+            if (!stillCovered && covered.remove(topic)) {
+                request(topic, true);
+            }
+        }
+        int count = 0;
+        for (String topic : removed) {
+            if (active.remove(topic)) {
+                request(topic, false);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void request(String name, boolean subscribe) throws InterruptedException {
+        outstanding.acquire();
+        int tag = nextTag.getAndIncrement();
+        pending.put(tag, new Request(name, subscribe));
+        Topic topic = Solclient.Allocator.newTopic(name);
+        int rc;
+        while (true) {
+            rc = subscribe ? sessionHandle.subscribe(topic, SolEnum.SubscribeFlags.REQUEST_CONFIRM, tag)
+                    : sessionHandle.unsubscribe(topic, SolEnum.SubscribeFlags.REQUEST_CONFIRM, tag);
+            if (rc != SolEnum.ReturnCode.WOULD_BLOCK) {
+                break;
+            }
+            canSend.tryAcquire(100, TimeUnit.MILLISECONDS);
+        }
+        if (rc != SolEnum.ReturnCode.OK && rc != SolEnum.ReturnCode.IN_PROGRESS) {
+            pending.remove(tag);
+            outstanding.release();
+            failed.incrementAndGet();
+            errors.put(name, SolEnum.ReturnCode.toString(rc));
+        }
+    }
+
+    /**
+     * Waits for every sent request to be confirmed or rejected.
+     *
+     * @return true if no request is outstanding
+     */
+    public boolean awaitConfirms(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!outstanding.tryAcquire(window, timeout, unit)) {
+            return false;
+        }
+        outstanding.release(window);
+        return true;
+    }
+
+    /**
+     * Orders wildcards first, shortest first, and drops every subscription that is a
+     * duplicate or covered by a wildcard in the batch or already in place.
+     */
+    List<String> deduplicate(Collection<String> topics) {
+        List<String> sorted = new ArrayList<String>(new LinkedHashSet<String>(topics));
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byGenerality = generality(b) - generality(a);
+                return byGenerality != 0 ? byGenerality : a.length() - b.length();
+            }
+        });
+        List<String> kept = new ArrayList<String>();
+        List<String> wildcards = new ArrayList<String>();
+        for (String topic : active) {
+            if (generality(topic) > 0) {
+                wildcards.add(topic);
+            }
+        }
+        for (String topic : sorted) {
+            if (active.contains(topic)) {
+                deduplicated.incrementAndGet();
+                continue;
+            }
+            boolean isCovered = false;
+            for (int i = 0; i < wildcards.size() && !isCovered; i++) {
+                isCovered = covers(wildcards.get(i), topic);
+            }
+            if (isCovered) {
+                covered.add(topic);
+                deduplicated.incrementAndGet();
+                continue;
+            }
+            kept.add(topic);
+            if (generality(topic) > 0) {
+                wildcards.add(topic);
+            }
+        }
+        return kept;
+    }
+
+    private static int generality(String topic) {
+        if (topic.endsWith(">")) {
+            return 2;
+        }
+        return topic.indexOf('*') >= 0 ? 1 : 0;
+    }
+
+    /**
+     * True if every topic matching <code>specific</code> also matches
+     * <code>general</code>. Conservative: returns false when unsure.
+     */
+    static boolean covers(String general, String specific) {
+        if (general.equals(specific)) {
+            return true;
+        }
+        if (generality(specific) == 0) {
+            return LoopbackRouter.matches(general, specific);
+        }
+        if (general.endsWith("/>") || general.equals(">")) {
+            String prefix = general.substring(0, general.length() - 1);
+            String rest = specific.startsWith(prefix) ? specific.substring(prefix.length()) : null;
+            if (rest != null && !rest.isEmpty() && prefix.indexOf('*') < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * @return topics subscribed through a covering wildcard only
+     */
+    public int getCoveredCount() {
+        return covered.size();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getConfirmed() {
+        return confirmed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    /**
+     * @return the topics that were rejected, with the reason
+     */
+    public Map<String, String> getErrors() {
+        return new LinkedHashMap<String, String>(errors);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.solacesystems.solclientj.core.SolEnum;
+import com.solacesystems.solclientj.core.Solclient;
+import com.solacesystems.solclientj.core.handle.SessionHandle;
+import com.solacesystems.solclientj.core.resource.Topic;
+
+/**
+ *
+ * SubscriptionRegistry.java
+ *
+ * Remembers the topic subscriptions an application has added so they can be
+ * put back on a session after it reconnects.
+ *
+ * <p>
+ * A {@link Replay} sends every subscription without waiting for a confirm and
+ * only waits on the last one. The router handles a session's subscription
+ * requests in order, so the last confirm means every earlier request has
+ * been processed; any that failed are reported through SUBSCRIPTION_ERROR
+ * session events. When the transmit window fills up the replay stops and is
+ * resumed from the same subscription on CAN_SEND.
+ */
+public class SubscriptionRegistry {
+
+    private final Map<String, Topic> topics = new LinkedHashMap<String, Topic>();
+
+    /**
+     * Subscribes, waiting for the confirm, and remembers the subscription.
+     */
+    public synchronized int subscribe(SessionHandle sessionHandle, String name) {
+        Topic topic = topicFor(name);
+        int rc = sessionHandle.subscribe(topic, SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+        if (rc == SolEnum.ReturnCode.OK) {
+            topics.put(name, topic);
+        }
+        return rc;
+    }
+
+    /**
+     * Unsubscribes, waiting for the confirm, and forgets the subscription.
+     */
+    public synchronized int unsubscribe(SessionHandle sessionHandle, String name) {
+        Topic topic = topics.remove(name);
+        if (topic == null) {
+            return SolEnum.ReturnCode.OK;
+        }
+        return sessionHandle.unsubscribe(topic, SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM, 0);
+    }
+
+    /**
+     * Remembers a subscription that was added some other way.
+     */
+    public synchronized void add(String name) {
+        topics.put(name, topicFor(name));
+    }
+
+    public synchronized void remove(String name) {
+        topics.remove(name);
+    }
+
+    public synchronized boolean contains(String name) {
+        return topics.containsKey(name);
+    }
+
+    public synchronized int size() {
+        return topics.size();
+    }
+
+    public synchronized List<String> getTopics() {
+        return new ArrayList<String>(topics.keySet());
+    }
+
+    /**
+     * Starts putting every remembered subscription back on a session.
+     */
+    public Replay newReplay() {
+        synchronized (this) {
+            return new Replay(new ArrayList<Topic>(topics.values()));
+        }
+    }
+
+    /**
+     * A replay of the subscriptions remembered when it was started.
+     */
+    public static final class Replay {
+
+        private final List<Topic> snapshot;
+        private int next;
+
+        private Replay(List<Topic> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Sends the subscription requests not sent yet, waiting for the
+         * confirm on the last one.
+         *
+         * @return false if the transmit window filled up; call it again on
+         *         CAN_SEND to carry on from the same subscription
+         * @throws IllegalStateException
+         *             if the session refused a subscription request
+         */
+        public boolean resume(SessionHandle sessionHandle) throws IllegalStateException {
+            while (next < snapshot.size()) {
+                boolean last = next == snapshot.size() - 1;
+                int rc = sessionHandle.subscribe(snapshot.get(next), last ? SolEnum.SubscribeFlags.WAIT_FOR_CONFIRM : 0,
+                        0);
+                if (rc == SolEnum.ReturnCode.WOULD_BLOCK) {
+                    return false;
+                }
+                if (rc != SolEnum.ReturnCode.OK && rc != SolEnum.ReturnCode.IN_PROGRESS) {
+                    throw new IllegalStateException(String.format("'%s' returned unexpected returnCode %d:%s",
+                            "sessionHandle.subscribe(" + snapshot.get(next).getName() + ")", rc,
+                            SolEnum.ReturnCode.toString(rc)));
+                }
+                next++;
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of subscriptions replayed so far
+         */
+        public int getReplayed() {
+            return next;
+        }
+    }
+
+    private Topic topicFor(String name) {
+        Topic topic = topics.get(name);
+        return topic != null ? topic : Solclient.Allocator.newTopic(name);
+    }
+}
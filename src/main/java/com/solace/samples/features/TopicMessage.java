@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+/**
+ *
+ * TopicMessage.java
+ *
+ * A message copied out of, or destined for, the messaging API: the topic name
+ * and the binary attachment. Unlike a {@code MessageHandle}, it remains valid
+ * once the message callback has returned.
+ */
+public final class TopicMessage {
+
+    private final String topic;
+    private final byte[] payload;
+
+    public TopicMessage(String topic, byte[] payload) {
+        this.topic = topic;
+        this.payload = payload;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * TraceProbe.java
+ *
+ * Sends timestamped messages to itself at a fixed rate and hands each
+ * received message to a {@link VirtualThreadDispatcher} whose handler spins
+ * for a configurable time, then prints the {@link HotPathTracer} breakdown of
+ * where the time went: the send call, transit to the message callback,
+ * copying out of the callback, waiting for a handler thread and the handler
+ * itself. The trace id travels in the payload after the send timestamp, so
+ * the receive side continues the sender's trace.
+ *
+ * <p>
+ * The <code>sample=N</code> option sets
+ * <code>solace.samples.trace.sample</code> unless it was given on the command
+ * line. Run with <code>sample=0</code> to measure the same workload with
+ * tracing compiled out.
+ */
+public class TraceProbe {
+
+    private static final String USAGE = "Usage: TraceProbe <loopback | host:port> [client-username@message-vpn client-password]"
+            + " [sample=100] [rate=10000] [duration=10] [payload=100] [handler-us=5] [threads=4] [trace-file=]";
+
+    public static void main(String[] args) throws Exception {
+        PerfSweep.Target target = PerfSweep.Target.parse(args, USAGE);
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("sample", "100");
+        options.put("rate", "10000");
+        options.put("duration", "10");
+        options.put("payload", "100");
+        options.put("handler-us", "5");
+        options.put("threads", "4");
+        options.put("trace-file", "");
+        PerfSweep.parseOptions(args, target.optionsStart, options, USAGE);
+        int rate = Integer.parseInt(options.get("rate"));
+        int duration = Integer.parseInt(options.get("duration"));
+        int payloadSize = Math.max(16, Integer.parseInt(options.get("payload")));
+        final long handlerNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.get("handler-us")));
+        String traceFile = options.get("trace-file");
+
+        // Must be set before HotPathTracer is first used, it is read once
+        if (System.getProperty("solace.samples.trace.sample") == null) {
+            System.setProperty("solace.samples.trace.sample", options.get("sample"));
+        }
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final VirtualThreadDispatcher dispatcher = VirtualThreadDispatcher.newPlatformThreadDispatcher(
+                new VirtualThreadDispatcher.Handler() {
+                    @Override
+                    public void onMessage(String topic, byte[] payload) {
+                        long deadline = System.nanoTime() + handlerNanos;
+                        while (System.nanoTime() < deadline) {
+                            // Simulated application work
+                        }
+                    }
+                }, Integer.parseInt(options.get("threads")), 10000);
+
+        PerfSession.Listener listener = new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+                long traceId = payload.getLong(payload.position() + 8);
+                HotPathTracer.mark(traceId, HotPathTracer.CALLBACK_ENTRY);
+                latency.record(System.nanoTime() - payload.getLong(payload.position()));
+                byte[] copy = new byte[payload.remaining()];
+                payload.duplicate().get(copy);
+                dispatcher.dispatch(topic, copy, traceId);
+            }
+        };
+        LoopbackRouter router = target.loopback ? new LoopbackRouter() : null;
+        PerfSession subscriber = target.open(router, listener);
+        subscriber.subscribe("trace/probe");
+        PerfSession publisher = target.loopback ? router.newSession(new PerfSession.Listener() {
+            @Override
+            public void onMessage(String topic, ByteBuffer payload) {
+            }
+        }) : subscriber;
+
+        System.out.println("TraceProbe against " + target.getName() + ": " + options + ", tracing "
+                + (HotPathTracer.ENABLED ? "1 in " + HotPathTracer.SAMPLE_EVERY : "off"));
+        ByteBuffer payload = NativeMemoryBudget.getDefault().allocateDirect("trace-probe", payloadSize);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long next = start;
+        long sent = 0;
+        while (System.nanoTime() < end) {
+            payload.clear();
+            long traceId = HotPathTracer.sample();
+            payload.putLong(0, System.nanoTime());
+            payload.putLong(8, traceId);
+            publisher.send("trace/probe", payload, traceId);
+            sent++;
+            next += intervalNanos;
+            PerfSweep.pace(next);
+        }
+        long elapsed = System.nanoTime() - start;
+        TimeUnit.MILLISECONDS.sleep(500);
+        dispatcher.awaitCompletion(10, TimeUnit.SECONDS);
+
+        System.out.println(String.format(" sent=%d %.0f msgs/s handled=%d end-to-end p50=%.2fus p99=%.2fus max=%.2fus",
+                sent, sent * 1e9 / elapsed, dispatcher.getCompleted(), latency.getValueAtPercentile(50) / 1e3,
+                latency.getValueAtPercentile(99) / 1e3, latency.getMax() / 1e3));
+        if (HotPathTracer.ENABLED) {
+            HotPathTracer.report();
+            if (traceFile.length() > 0) {
+                HotPathTracer.export(new File(traceFile));
+            }
+        }
+
+        if (publisher != subscriber) {
+            publisher.close();
+        }
+        subscriber.close();
+        dispatcher.shutdown(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.io.File;
+
+/**
+ *
+ * TraceReport.java
+ *
+ * Prints the {@link HotPathTracer} breakdown of a trace exported with
+ * <code>solace.samples.trace.file</code> or <code>TraceProbe
+ * trace-file=</code>, so traces taken on a test host can be analysed
+ * offline.
+ */
+public class TraceReport {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: TraceReport <trace.csv>");
+            System.out.println();
+            System.exit(-1);
+        }
+        System.out.println("TraceReport for " + args[0]);
+        HotPathTracer.report(HotPathTracer.read(new File(args[0])));
+    }
+}
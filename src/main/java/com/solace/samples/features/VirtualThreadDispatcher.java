@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solacesystems.solclientj.core.event.MessageCallback;
+import com.solacesystems.solclientj.core.handle.Handle;
+import com.solacesystems.solclientj.core.handle.MessageHandle;
+import com.solacesystems.solclientj.core.handle.MessageSupport;
+import com.solacesystems.solclientj.core.resource.Destination;
+
+/**
+ *
+ * VirtualThreadDispatcher.java
+ *
+ * A {@link MessageCallback} that moves message handling off the context
+ * thread. Each received message is copied out of the callback (the rx message
+ * is only valid for the duration of the callback) and the handler is run on
+ * its own thread, so handlers are free to make blocking calls to a database or
+ * a file without stalling the context.
+ *
+ * <p>
+ * On Java 21+ the handler runs on a virtual thread per message. Any other
+ * {@link ExecutorService}, such as a fixed pool of platform threads, can be
+ * supplied instead. The number of messages in flight is limited by a
+ * semaphore; when the limit is reached the context thread waits for a handler
+ * to complete.
+ *
+ * <p>
+ * Usage: pass the dispatcher as the message callback when creating the
+ * session:
+ *
+ * <pre>
+ * VirtualThreadDispatcher dispatcher = VirtualThreadDispatcher.newVirtualThreadDispatcher(handler, 10000);
+ * contextHandle.createSessionForHandle(sessionHandle, props, dispatcher, sessionEventCallback);
+ * </pre>
+ *
+ * <p>
+ * Callback entry, hand-off and handler start and end are {@link HotPathTracer}
+ * hooks.
+ */
+public class VirtualThreadDispatcher implements MessageCallback {
+
+    /**
+     * Application work done for each message, on a thread owned by the
+     * dispatcher.
+     */
+    public interface Handler {
+        void onMessage(String topic, byte[] payload) throws Exception;
+    }
+
+    private final Handler handler;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    // Only used on the context thread
+    private ByteBuffer rxBuffer;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong overBudget = new AtomicLong();
+
+    public VirtualThreadDispatcher(Handler handler, ExecutorService executor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.handler = handler;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Creates a dispatcher that runs each handler invocation on a new virtual
+     * thread.
+     *
+     * @throws IllegalStateException
+     *             if the JVM does not support virtual threads (Java 21+)
+     */
+    public static VirtualThreadDispatcher newVirtualThreadDispatcher(Handler handler, int maxInFlight)
+            throws IllegalStateException {
+        return new VirtualThreadDispatcher(handler, newVirtualThreadExecutor(), maxInFlight);
+    }
+
+    /**
+     * Creates a dispatcher backed by a fixed pool of platform threads.
+     */
+    public static VirtualThreadDispatcher newPlatformThreadDispatcher(Handler handler, int threads,
+            int maxInFlight) {
+        return new VirtualThreadDispatcher(handler, Executors.newFixedThreadPool(threads), maxInFlight);
+    }
+
+    /**
+     * Looks up <code>Executors.newVirtualThreadPerTaskExecutor()</code>
+     * reflectively so these samples still build and run on older JVMs.
+     *
+     * @throws IllegalStateException
+     *             if the JVM does not support virtual threads (Java 21+)
+     */
+    public static ExecutorService newVirtualThreadExecutor() throws IllegalStateException {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21+, running on Java "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void onMessage(Handle handle) {
+        long traceId = HotPathTracer.sample();
+        HotPathTracer.mark(traceId, HotPathTracer.CALLBACK_ENTRY);
+        MessageHandle rxMessage = ((MessageSupport) handle).getRxMessage();
+
+        // Copy everything the handler needs out of the rx message, it must not
+        // be touched once this callback returns
+        Destination destination = rxMessage.getDestination();
+        String topic = destination != null ? destination.getName() : null;
+        ByteBuffer buffer = NativeMemoryBudget.getDefault().tryEnsureCapacity("dispatcher", rxBuffer,
+                rxMessage.getBinaryAttachmentSize());
+        if (buffer == null) {
+            // Never wait for native memory on the context thread
+            overBudget.incrementAndGet();
+            return;
+        }
+        rxBuffer = buffer;
+        rxBuffer.clear();
+        rxMessage.getBinaryAttachment(rxBuffer);
+        rxBuffer.flip();
+        byte[] payload = new byte[rxBuffer.remaining()];
+        rxBuffer.get(payload);
+
+        dispatch(topic, payload, traceId);
+    }
+
+    /**
+     * Hands a message, already copied out of the callback, to the handler.
+     * Waits for an in-flight slot if <code>maxInFlight</code> messages are
+     * being handled.
+     */
+    public void dispatch(String topic, byte[] payload) {
+        dispatch(topic, payload, 0);
+    }
+
+    /**
+     * Hands a message to the handler as part of a {@link HotPathTracer} trace
+     * started by the caller.
+     */
+    public void dispatch(final String topic, final byte[] payload, final long traceId) {
+        inFlight.acquireUninterruptibly();
+        HotPathTracer.mark(traceId, HotPathTracer.HAND_OFF);
+        submitted.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HotPathTracer.mark(traceId, HotPathTracer.HANDLER_START);
+                        handler.onMessage(topic, payload);
+                        HotPathTracer.mark(traceId, HotPathTracer.HANDLER_END);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        e.printStackTrace();
+                    } finally {
+                        completed.incrementAndGet();
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected, e.g. after shutdown
+            failed.incrementAndGet();
+            completed.incrementAndGet();
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for every dispatched message to complete.
+     *
+     * @return true if all handlers completed within the timeout
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!inFlight.tryAcquire(maxInFlight, timeout, unit)) {
+            return false;
+        }
+        inFlight.release(maxInFlight);
+        return true;
+    }
+
+    /**
+     * Stops accepting messages and waits for in-flight handlers to complete.
+     *
+     * @return true if the executor terminated within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns how many messages were dropped because the native memory
+     * budget could not hold their attachment.
+     */
+    public long getOverBudget() {
+        return overBudget.get();
+    }
+
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+}
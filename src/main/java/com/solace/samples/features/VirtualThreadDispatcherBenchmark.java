@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+/**
+ *
+ * VirtualThreadDispatcherBenchmark.java
+ *
+ * Compares the {@link VirtualThreadDispatcher} running handlers on virtual
+ * threads against a fixed pool of platform threads. Every handler blocks for a
+ * fixed time to simulate a call to a downstream system. All messages are
+ * dispatched up front so that the whole batch is in flight at once, then
+ * handler latency (dispatch to handler end), heap usage, process RSS and live
+ * thread count are reported for each mode.
+ *
+ * <p>
+ * Platform thread stacks are native memory, so the heap alone understates
+ * their cost. RSS is read from <code>/proc/self/status</code> on Linux. Run
+ * with <code>-XX:NativeMemoryTracking=summary</code> to also report the
+ * committed thread-stack memory.
+ *
+ * <p>
+ * No router is needed, messages are dispatched directly as if they had just
+ * been copied out of the message callback.
+ */
+public class VirtualThreadDispatcherBenchmark {
+
+    // The "Thread" line of a native memory tracking summary
+    private static final Pattern NMT_THREAD = Pattern.compile("Thread \\(reserved=\\d+KB, committed=(\\d+)KB\\)");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 3) {
+            System.out.println("Usage: VirtualThreadDispatcherBenchmark [messages] [handler-block-ms] [platform-threads]");
+            System.out.println();
+            System.exit(-1);
+        }
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int blockMillis = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int platformThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        System.out.println("VirtualThreadDispatcherBenchmark: " + messages + " messages in flight, handler blocks "
+                + blockMillis + "ms");
+
+        run("platform(" + platformThreads + ")", messages, blockMillis, platformThreads, false);
+        if (VirtualThreadDispatcher.isVirtualThreadSupported()) {
+            run("virtual", messages, blockMillis, platformThreads, true);
+        } else {
+            System.out.println(" Virtual threads require Java 21+, running on Java "
+                    + System.getProperty("java.version") + ". Skipping virtual thread run.");
+        }
+    }
+
+    private static void run(String name, int messages, final int blockMillis, int platformThreads, boolean virtual)
+            throws InterruptedException {
+        final long[] latencies = new long[messages];
+        VirtualThreadDispatcher.Handler handler = new VirtualThreadDispatcher.Handler() {
+            @Override
+            public void onMessage(String topic, byte[] payload) throws Exception {
+                Thread.sleep(blockMillis);
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                int sequence = buffer.getInt();
+                latencies[sequence] = System.nanoTime() - buffer.getLong();
+            }
+        };
+
+        VirtualThreadDispatcher dispatcher = virtual
+                ? VirtualThreadDispatcher.newVirtualThreadDispatcher(handler, messages)
+                : VirtualThreadDispatcher.newPlatformThreadDispatcher(handler, platformThreads, messages);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long rssBefore = rssKb();
+        long stacksBefore = threadStacksKb();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            byte[] payload = new byte[12];
+            ByteBuffer.wrap(payload).putInt(i).putLong(System.nanoTime());
+            dispatcher.dispatch("bench/topic", payload);
+        }
+        long heapInFlight = memory.getHeapMemoryUsage().getUsed();
+        int threadsInFlight = threads.getThreadCount();
+        long rssInFlight = rssKb();
+        long stacksInFlight = threadStacksKb();
+
+        if (!dispatcher.awaitCompletion(10, TimeUnit.MINUTES)) {
+            System.out.println(" " + name + ": timed out waiting for handlers");
+        }
+        long elapsed = System.nanoTime() - start;
+        dispatcher.shutdown(10, TimeUnit.SECONDS);
+
+        Arrays.sort(latencies);
+        System.out.println(String.format(
+                " %-14s elapsed=%dms msgs/s=%.0f latency p50=%.1fms p99=%.1fms max=%.1fms heap-in-flight=%dKB threads=%d failed=%d",
+                name, TimeUnit.NANOSECONDS.toMillis(elapsed), messages * 1e9 / elapsed,
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                latencies[latencies.length - 1] / 1e6, (heapInFlight - heapBefore) / 1024, threadsInFlight,
+                dispatcher.getFailed()));
+        System.out.println(String.format(" %-14s rss-in-flight=%s thread-stacks-in-flight=%s", "",
+                delta(rssBefore, rssInFlight), delta(stacksBefore, stacksInFlight)));
+    }
+
+    private static String delta(long before, long after) {
+        return before < 0 || after < 0 ? "n/a" : (after - before) + "KB";
+    }
+
+    /**
+     * Returns the resident set size of this process, or -1 where
+     * <code>/proc</code> is not available.
+     */
+    static long rssKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (Exception e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the committed thread-stack memory reported by native memory
+     * tracking, or -1 if it is not enabled.
+     */
+    static long threadStacksKb() {
+        try {
+            Object summary = ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+                    new Object[] { new String[] { "summary" } }, new String[] { String[].class.getName() });
+            Matcher matcher = NMT_THREAD.matcher(String.valueOf(summary));
+            if (matcher.find()) {
+                return Long.parseLong(matcher.group(1));
+            }
+        } catch (Exception e) {
+            // not a HotSpot JVM
+        }
+        return -1;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.solace.samples.features;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * WorkloadGenerator.java
+ *
+ * Generates a publishing workload spread over many topics with a skewed
+ * popularity, to reproduce hot-spotting on the router and on subscribers.
+ *
+ * <p>
+ * Topic choice and payload size are drawn from tables precomputed at
+ * construction using a seeded random generator, and every payload is a view
+ * of one pre-filled direct buffer, so {@link #next()} does not allocate.
+ * Call {@link #recordSent()} once the router has taken a message; the
+ * generator counts those per topic so throughput can be reported by
+ * popularity bucket with {@link #report(long)}.
+ *
+ * <p>
+ * Key distributions:
+ * <ul>
+ * <li><code>uniform</code>
+ * <li><code>zipf:S</code>: topic of rank k is chosen in proportion to
+ * 1/k<sup>S</sup>
+ * <li><code>hotspot:F:P</code>: a fraction F of the topics receives a
+ * fraction P of the messages, e.g. <code>hotspot:0.01:0.9</code>
+ * </ul>
+ * Payload size distributions: <code>fixed:N</code>,
+ * <code>uniform:MIN:MAX</code> and <code>bimodal:SMALL:LARGE:P</code>, where
+ * P is the fraction of large payloads.
+ *
+ * <p>
+ * Not thread-safe; use one generator per publishing thread.
+ */
+public class WorkloadGenerator {
+
+    private static final int TOPIC_TABLE_BITS = 20;
+    private static final int SIZE_TABLE_BITS = 16;
+
+    private final String[] topics;
+    private final int[] topicTable;
+    private final int[] sizeTable;
+    private final ByteBuffer payload;
+    private final long[] counts;
+    private long state;
+    private int currentTopic;
+
+    public WorkloadGenerator(String topicPrefix, int topicCount, String distribution, String sizes, long seed)
+            throws IllegalArgumentException {
+        if (topicCount <= 0) {
+            throw new IllegalArgumentException("topicCount must be positive: " + topicCount);
+        }
+        topics = new String[topicCount];
+        for (int i = 0; i < topicCount; i++) {
+            topics[i] = topicPrefix + "/" + i;
+        }
+        counts = new long[topicCount];
+        topicTable = quantiles(weights(topicCount, distribution), 1 << TOPIC_TABLE_BITS);
+
+        Random random = new Random(seed);
+        sizeTable = new int[1 << SIZE_TABLE_BITS];
+        String[] spec = sizes.split(":");
+        try {
+            for (int i = 0; i < sizeTable.length; i++) {
+                if ("fixed".equals(spec[0])) {
+                    sizeTable[i] = Integer.parseInt(spec[1]);
+                } else if ("uniform".equals(spec[0])) {
+                    int min = Integer.parseInt(spec[1]);
+                    sizeTable[i] = min + random.nextInt(Integer.parseInt(spec[2]) - min + 1);
+                } else if ("bimodal".equals(spec[0])) {
+                    boolean large = random.nextDouble() < Double.parseDouble(spec[3]);
+                    sizeTable[i] = Integer.parseInt(spec[large ? 2 : 1]);
+                } else {
+                    throw new IllegalArgumentException("Unknown payload size distribution: " + sizes);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Incomplete payload size distribution: " + sizes);
+        }
+        int maxSize = 8;
+        for (int size : sizeTable) {
+            maxSize = Math.max(maxSize, size);
+        }
+        payload = NativeMemoryBudget.getDefault().allocateDirect("workload-generator", maxSize);
+        for (int i = 0; i < maxSize; i++) {
+            payload.put(i, (byte) ('a' + i % 26));
+        }
+        state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    private static double[] weights(int n, String distribution) {
+        String[] spec = distribution.split(":");
+        double[] weights = new double[n];
+        try {
+            if ("uniform".equals(spec[0])) {
+                Arrays.fill(weights, 1.0);
+            } else if ("zipf".equals(spec[0])) {
+                double exponent = spec.length > 1 ? Double.parseDouble(spec[1]) : 1.0;
+                for (int k = 0; k < n; k++) {
+                    weights[k] = 1.0 / Math.pow(k + 1, exponent);
+                }
+            } else if ("hotspot".equals(spec[0])) {
+                int hot = Math.max(1, (int) Math.ceil(n * Double.parseDouble(spec[1])));
+                double hotShare = Double.parseDouble(spec[2]);
+                for (int k = 0; k < n; k++) {
+                    weights[k] = k < hot ? hotShare / hot : (1 - hotShare) / Math.max(1, n - hot);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown key distribution: " + distribution);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Incomplete key distribution: " + distribution);
+        }
+        return weights;
+    }
+
+    /**
+     * Fills a table with the topic index at evenly spaced quantiles of the
+     * distribution, so a uniformly random table entry follows it.
+     */
+    private static int[] quantiles(double[] weights, int tableSize) {
+        double[] cumulative = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        int[] table = new int[tableSize];
+        int k = 0;
+        for (int i = 0; i < tableSize; i++) {
+            double u = (i + 0.5) / tableSize * total;
+            while (k < cumulative.length - 1 && cumulative[k] < u) {
+                k++;
+            }
+            table[i] = k;
+        }
+        return table;
+    }
+
+    /**
+     * Picks the next message's topic and payload size.
+     */
+    public void next() {
+        // xorshift64
+        long x = state;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        state = x;
+        currentTopic = topicTable[(int) (x >>> (64 - TOPIC_TABLE_BITS))];
+        payload.clear();
+        payload.limit(sizeTable[(int) x & ((1 << SIZE_TABLE_BITS) - 1)]);
+    }
+
+    /**
+     * Counts the current message as sent to its topic. Call it only when the
+     * send returned <code>OK</code> or <code>IN_PROGRESS</code>.
+     */
+    public void recordSent() {
+        counts[currentTopic]++;
+    }
+
+    public String getTopic() {
+        return topics[currentTopic];
+    }
+
+    /**
+     * @return the payload for the current message, valid until the next
+     *         call to {@link #next()}
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    public int getTopicCount() {
+        return topics.length;
+    }
+
+    /**
+     * Prints sent message counts and throughput by popularity bucket: the top
+     * topic, then topics ranked 2-10, 11-100 and so on.
+     */
+    public void report(long elapsedNanos) {
+        long[] sorted = counts.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long count : sorted) {
+            total += count;
+        }
+        if (total == 0) {
+            return;
+        }
+        double seconds = elapsedNanos / 1e9;
+        int from = 0;
+        int to = 1;
+        while (from < sorted.length) {
+            int end = Math.min(to, sorted.length);
+            long messages = 0;
+            for (int rank = from; rank < end; rank++) {
+                messages += sorted[sorted.length - 1 - rank];
+            }
+            System.out.println(String.format("  topics ranked %6d-%-6d share=%5.1f%% msgs/s=%10.0f per-topic msgs/s=%9.1f",
+                    from + 1, end, messages * 100.0 / total, messages / seconds, messages / seconds / (end - from)));
+            from = end;
+            to *= 10;
+        }
+    }
+}